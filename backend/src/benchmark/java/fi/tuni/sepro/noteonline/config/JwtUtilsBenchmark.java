@@ -0,0 +1,66 @@
+package fi.tuni.sepro.noteonline.config;
+
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * JWT generation and validation. Validation is measured with the verified token cache, as for
+ * repeated requests of a session, and without it, as for the first request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class JwtUtilsBenchmark {
+
+    private JwtUtils cachingJwtUtils;
+    private JwtUtils jwtUtils;
+    private String token;
+
+    @Setup
+    public void setup() {
+        cachingJwtUtils = createJwtUtils(10000);
+        jwtUtils = createJwtUtils(0);
+        token = jwtUtils.generateTokenFromUserName("benchmark@noteonline.fi");
+    }
+
+    @Benchmark
+    public String generate() {
+        return jwtUtils.generateTokenFromUserName("benchmark@noteonline.fi");
+    }
+
+    @Benchmark
+    public String validateUncached() {
+        return jwtUtils.validateAndGetSubject(token);
+    }
+
+    @Benchmark
+    public String validateCached() {
+        return cachingJwtUtils.validateAndGetSubject(token);
+    }
+
+    private static JwtUtils createJwtUtils(int cacheSize) {
+        JwtUtils jwtUtils = new JwtUtils();
+        ReflectionTestUtils.setField(jwtUtils, "jwtSecret", Base64.getEncoder().encodeToString(new byte[64]));
+        ReflectionTestUtils.setField(jwtUtils, "jwtExpirationMs", 24 * 60 * 60 * 1000);
+        ReflectionTestUtils.setField(jwtUtils, "verifiedTokenCacheSize", cacheSize);
+        jwtUtils.init();
+        return jwtUtils;
+    }
+}
@@ -0,0 +1,108 @@
+package fi.tuni.sepro.noteonline.services;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares pooled CryptoEngine operations to creating a new Cipher / SecureRandom for each
+ * operation, which is what the application did before CryptoEngine.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class CryptoEngineBenchmark {
+
+    @Param({"SunJCE", "BC"})
+    private String provider;
+
+    @Param({"256", "4096"})
+    private int payloadSize;
+
+    private CryptoEngine cryptoEngine;
+    private SecretKey key;
+    private SecretKey wrappingKey;
+    private IvParameterSpec iv;
+    private byte[] payload;
+    private byte[] aad;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        cryptoEngine = new CryptoEngine(provider, 64);
+        key = cryptoEngine.generateKey(128);
+        wrappingKey = cryptoEngine.generateKey(256);
+        iv = cryptoEngine.generateIv();
+        payload = cryptoEngine.randomBytes(payloadSize);
+        aad = cryptoEngine.randomBytes(16);
+    }
+
+    @Benchmark
+    public byte[] encryptPooled() throws GeneralSecurityException {
+        return cryptoEngine.encrypt(payload, key, iv);
+    }
+
+    @Benchmark
+    public byte[] encryptPerCall() throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding", provider);
+        cipher.init(Cipher.ENCRYPT_MODE, key, iv);
+        return cipher.doFinal(payload);
+    }
+
+    @Benchmark
+    public int encryptPooledBuffer() throws GeneralSecurityException {
+        ByteBuffer output = ByteBuffer.allocate(cryptoEngine.encryptedSize(payload.length));
+        return cryptoEngine.encrypt(ByteBuffer.wrap(payload), output, key, iv);
+    }
+
+    @Benchmark
+    public byte[] sealPooled() throws GeneralSecurityException {
+        // A nonce must not be reused with the same key
+        return cryptoEngine.seal(payload, key, cryptoEngine.generateNonce(), aad);
+    }
+
+    @Benchmark
+    public byte[] wrapKeyPooled() throws GeneralSecurityException {
+        return cryptoEngine.wrapKey(key, wrappingKey);
+    }
+
+    @Benchmark
+    public byte[] wrapKeyPerCall() throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AESWrap", provider);
+        cipher.init(Cipher.WRAP_MODE, wrappingKey);
+        return cipher.wrap(key);
+    }
+
+    @Benchmark
+    public byte[] randomBytesShared() {
+        return cryptoEngine.randomBytes(16);
+    }
+
+    @Benchmark
+    public byte[] randomBytesPerCall() {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        return bytes;
+    }
+}
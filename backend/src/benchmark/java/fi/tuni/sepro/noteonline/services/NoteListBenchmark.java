@@ -0,0 +1,57 @@
+package fi.tuni.sepro.noteonline.services;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.tuni.sepro.noteonline.dto.NoteDetailsPageDto;
+import fi.tuni.sepro.noteonline.utils.NoteCursor;
+
+/**
+ * Decryption of a note listing with N notes, as returned by the note list endpoint. Run with
+ * different thread counts (-t) to see how the shared crypto pool behaves under load.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class NoteListBenchmark {
+
+    @Param({"10", "50", "100"})
+    private int noteCount;
+
+    private NoteServiceFixture fixture;
+
+    @Setup
+    public void setup() throws Exception {
+        fixture = new NoteServiceFixture("SunJCE");
+        fixture.storeNotes(noteCount, NoteServiceFixture.text(64), NoteServiceFixture.text(100));
+        fixture.stubListing();
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public NoteDetailsPageDto decryptList() {
+        return fixture.noteService.getNoteDetailsByUser(NoteServiceFixture.OWNER, NoteServiceFixture.ENC_KEY,
+            NoteCursor.first(NoteCursor.Sort.CREATED), noteCount);
+    }
+}
@@ -0,0 +1,78 @@
+package fi.tuni.sepro.noteonline.services;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.tuni.sepro.noteonline.models.Note;
+
+/**
+ * Encryption and decryption of a single note through NoteService, for note sizes up to the
+ * limits in NoteUtils. The data key is cached, as it is after the first request of a session.
+ * The stored size of the note is printed, to compare with the time spent on compression.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class NoteServiceBenchmark {
+
+    // Maximum header length in NoteUtils
+    private static final int HEADER_LENGTH = 64;
+
+    @Param({"SunJCE", "BC"})
+    private String provider;
+
+    // Up to the maximum content length in NoteUtils
+    @Param({"100", "1000", "5000"})
+    private int contentLength;
+
+    // Content compressed before encryption
+    @Param({"false", "true"})
+    private boolean compression;
+
+    private NoteServiceFixture fixture;
+    private byte[] header;
+    private byte[] content;
+    private long storedId;
+
+    @Setup
+    public void setup() throws Exception {
+        fixture = new NoteServiceFixture(provider, compression);
+        header = NoteServiceFixture.text(HEADER_LENGTH);
+        content = NoteServiceFixture.text(contentLength);
+        storedId = fixture.storeNotes(1, header, content).get(0);
+        System.out.printf("%nStored content: %d bytes, plain %d bytes%n", 
+            fixture.noteService.getNoteById(storedId).getContent().length, content.length);
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public Note encryptNote() throws Exception {
+        return fixture.noteService.createNote(NoteServiceFixture.plainNote(header, content));
+    }
+
+    @Benchmark
+    public Note decryptNote() throws Exception {
+        return fixture.noteService.getNoteByIdDecrypted(storedId, NoteServiceFixture.ENC_KEY);
+    }
+}
@@ -0,0 +1,159 @@
+package fi.tuni.sepro.noteonline.services;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import fi.tuni.sepro.noteonline.models.Note;
+import fi.tuni.sepro.noteonline.models.User;
+import fi.tuni.sepro.noteonline.repository.NoteHeaderView;
+import fi.tuni.sepro.noteonline.repository.NoteRepository;
+import fi.tuni.sepro.noteonline.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * NoteService with real crypto components and stubbed repositories, so benchmarks measure
+ * encryption and not the database. Stubs do not record invocations, which would fill the heap
+ * during a run. Stored notes are copied on every read, since decryption modifies the note.
+ */
+class NoteServiceFixture {
+
+    static final long OWNER = 1;
+    static final String ENC_KEY = "ZW5jcnlwdGlvbmtleWZvcmJlbmNobWFya3M=";
+
+    private static final String[] WORDS = {
+        "the", "note", "meeting", "tomorrow", "remember", "to", "buy", "milk", "and", "call", "project",
+        "deadline", "is", "on", "friday", "review", "code", "before", "release", "send", "email", "with",
+        "report", "budget", "team", "lunch", "at", "noon", "ideas", "for", "weekend", "trip", "password",
+        "change", "list", "of", "tasks", "done", "todo", "important", "check", "schedule", "book"
+    };
+
+    final CryptoEngine cryptoEngine;
+    final CryptoWorkerPool cryptoWorkerPool;
+    final NoteService noteService;
+
+    private final NoteRepository noteRepository = mock(NoteRepository.class, withSettings().stubOnly());
+    private final List<Note> storedNotes = new ArrayList<>();
+
+    NoteServiceFixture(String provider) throws GeneralSecurityException {
+        this(provider, false);
+    }
+
+    NoteServiceFixture(String provider, boolean compression) throws GeneralSecurityException {
+        cryptoEngine = new CryptoEngine(provider, 64);
+        cryptoWorkerPool = new CryptoWorkerPool(0, 1000, 4, 8, new SimpleMeterRegistry());
+
+        KeyEncryptionKeyCache keyCache = new KeyEncryptionKeyCache(cryptoEngine);
+        ReflectionTestUtils.setField(keyCache, "maxEntries", 100);
+        ReflectionTestUtils.setField(keyCache, "ttlMs", Long.MAX_VALUE / 2);
+
+        User user = new User();
+        user.setId(OWNER);
+        UserRepository userRepository = mock(UserRepository.class, withSettings().stubOnly());
+        when(userRepository.findById(OWNER)).thenReturn(Optional.of(user));
+
+        DataKeyService dataKeyService = new DataKeyService(userRepository, keyCache, cryptoEngine);
+        dataKeyService.assignNewDataKey(user, ENC_KEY);
+
+        UsageLedgerService usageLedger = mock(UsageLedgerService.class, withSettings().stubOnly());
+        when(usageLedger.reserve(anyLong(), anyLong(), anyLong())).thenReturn(true);
+
+        // Ids are allocated as indexes of the stored notes and assigned on save, like NoteIdGenerator does
+        when(noteRepository.allocateId()).thenAnswer(invocation -> (long)storedNotes.size());
+        when(noteRepository.save(any(Note.class))).thenAnswer(invocation -> {
+            Note note = invocation.getArgument(0);
+            note.setId(note.getAllocatedId());
+            return note;
+        });
+        when(noteRepository.findById(anyLong())).thenAnswer(invocation ->
+            Optional.of(copy(storedNotes.get(invocation.<Long>getArgument(0).intValue()))));
+
+        // Search tokens are calculated as in production, only the inserts are skipped
+        NoteSearchIndex searchIndex = new NoteSearchIndex(mock(JdbcTemplate.class, withSettings().stubOnly()), cryptoEngine);
+        ReflectionTestUtils.setField(searchIndex, "maxTokensPerNote", 1000);
+
+        noteService = new NoteService(noteRepository, keyCache, dataKeyService, cryptoWorkerPool, usageLedger, cryptoEngine,
+            mock(NoteTombstoneService.class, withSettings().stubOnly()), searchIndex,
+            mock(NoteListingCache.class, withSettings().stubOnly()));
+        ReflectionTestUtils.setField(noteService, "defaultPageSize", 50);
+        ReflectionTestUtils.setField(noteService, "maxPageSize", 1000);
+        ReflectionTestUtils.setField(noteService, "compression", compression);
+        ReflectionTestUtils.setField(noteService, "compressionLevel", 1);
+        ReflectionTestUtils.setField(noteService, "compressionMinSavedBytes", 32);
+    }
+
+    /**
+     * Creates a plain note, which can be given to createNote once
+     */
+    static Note plainNote(byte[] header, byte[] content) {
+        Note note = new Note();
+        note.setOwner(OWNER);
+        note.setHeader(header);
+        note.setContent(content);
+        note.setEncryptionKey(ENC_KEY.getBytes(StandardCharsets.UTF_8));
+        return note;
+    }
+
+    /**
+     * Encrypts and stores the given number of notes
+     * @return ids of the stored notes
+     */
+    List<Long> storeNotes(int count, byte[] header, byte[] content) throws Exception {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Note note = noteService.createNote(plainNote(header, content));
+            ids.add(note.getId());
+            storedNotes.add(note);
+        }
+        return ids;
+    }
+
+    /**
+     * Returns all stored notes from listing queries
+     */
+    void stubListing() {
+        List<NoteHeaderView> headers = storedNotes.stream().<NoteHeaderView>map(HeaderView::new).toList();
+        when(noteRepository.findHeadersByOwnerCreatedBefore(any(), anyLong(), anyLong(), any())).thenReturn(headers);
+    }
+
+    void close() {
+        cryptoWorkerPool.shutdown();
+    }
+
+    static byte[] text(int length) {
+        // Words from a small vocabulary, so compression ratios are close to real notes
+        Random random = new Random(length);
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(8) == 0 ? ".\n" : " ");
+        }
+        return text.substring(0, length).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Note copy(Note note) {
+        return new Note(note.getId(), 0, note.getOwner(), note.getCreatedAt(), note.getModifiedAt(), 
+            note.getHeader(), note.getContent(), note.getEncryptionKey(), note.getIv(), note.getSalt(), 
+            note.getFormatVersion());
+    }
+
+    private record HeaderView(long getId, long getOwner, long getCreatedAt, long getModifiedAt, byte[] getHeader, 
+            byte[] getIv, byte[] getSalt, byte[] getEncryptionKey, int getFormatVersion) implements NoteHeaderView {
+
+        HeaderView(Note note) {
+            this(note.getId(), note.getOwner(), note.getCreatedAt(), note.getModifiedAt(), note.getHeader(),
+                note.getIv(), note.getSalt(), note.getEncryptionKey(), note.getFormatVersion());
+        }
+    }
+}
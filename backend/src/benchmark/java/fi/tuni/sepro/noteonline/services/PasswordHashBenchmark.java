@@ -0,0 +1,86 @@
+package fi.tuni.sepro.noteonline.services;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.tuni.sepro.noteonline.config.CustomPasswordEncoder;
+import fi.tuni.sepro.noteonline.dto.AuthDto;
+import fi.tuni.sepro.noteonline.models.User;
+import fi.tuni.sepro.noteonline.utils.LoginUtils;
+
+/**
+ * Password hashing with the configured parameters. A login runs Argon2 (encryption key) and
+ * scrypt matches (password check), registration runs Argon2 and scrypt encode. PBKDF2 is run
+ * once per session when a key encryption key is derived.
+ *
+ * Run after changing hashing parameters, together with the memory use in KdfExecutor.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class PasswordHashBenchmark {
+
+    private static final String PASSWORD = "Benchmark-Password-1";
+
+    private CryptoEngine cryptoEngine;
+    private CustomPasswordEncoder passwordEncoder;
+    private User user;
+    private String loginHash;
+    private String encodedPassword;
+    private byte[] salt;
+
+    @Setup
+    public void setup() throws Exception {
+        cryptoEngine = new CryptoEngine("SunJCE", 64);
+        passwordEncoder = new CustomPasswordEncoder();
+
+        AuthDto hash = LoginUtils.generateNewHash(cryptoEngine, PASSWORD);
+        user = new User();
+        user.setSalt(hash.getSalt());
+        loginHash = hash.getHash();
+        encodedPassword = passwordEncoder.encode(loginHash);
+        salt = cryptoEngine.randomBytes(16);
+    }
+
+    @Benchmark
+    public AuthDto argon2Login() {
+        return LoginUtils.generateLoginHash(user, PASSWORD);
+    }
+
+    @Benchmark
+    public AuthDto argon2Register() {
+        return LoginUtils.generateNewHash(cryptoEngine, PASSWORD);
+    }
+
+    @Benchmark
+    public String scryptEncode() {
+        return passwordEncoder.encode(loginHash);
+    }
+
+    @Benchmark
+    public boolean scryptMatches() {
+        return passwordEncoder.matches(loginHash, encodedPassword);
+    }
+
+    @Benchmark
+    public SecretKey pbkdf2() throws Exception {
+        return cryptoEngine.generateKeyFromPassword(PASSWORD, salt);
+    }
+}
@@ -0,0 +1,77 @@
+package fi.tuni.sepro.noteonline.loadtest;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Latency histograms and error counts per endpoint. Latencies are recorded in microseconds.
+ */
+class EndpointStats {
+
+    private static final long MAX_LATENCY_US = TimeUnit.MINUTES.toMicros(2);
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentSkipListMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    /**
+     * Records a request
+     * @param endpoint endpoint name, such as "POST /api/login"
+     * @param startNanos start time, for the first request of a scenario the time it was scheduled
+     * @param success false if the request failed or returned an unexpected status
+     */
+    void record(String endpoint, long startNanos, boolean success) {
+        long latencyUs = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        Endpoint stats = endpoints.computeIfAbsent(endpoint, key -> new Endpoint());
+        stats.latencies.recordValue(Math.min(latencyUs, MAX_LATENCY_US));
+        if (!success) {
+            stats.errors.increment();
+        }
+    }
+
+    void increment(String counter) {
+        counters.computeIfAbsent(counter, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * Clears everything recorded so far, used after the warmup
+     */
+    void reset() {
+        endpoints.clear();
+        counters.clear();
+    }
+
+    void print(PrintStream out, double seconds) {
+        out.printf("%-28s %8s %8s %8s %9s %9s %9s %9s %9s%n",
+            "endpoint", "count", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        endpoints.forEach((name, stats) -> {
+            Histogram histogram = stats.latencies.copy();
+            out.printf("%-28s %8d %8d %8.1f %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+                name,
+                histogram.getTotalCount(),
+                stats.errors.sum(),
+                histogram.getTotalCount() / seconds,
+                millis(histogram.getValueAtPercentile(50)),
+                millis(histogram.getValueAtPercentile(90)),
+                millis(histogram.getValueAtPercentile(99)),
+                millis(histogram.getValueAtPercentile(99.9)),
+                millis(histogram.getMaxValue()));
+        });
+        counters.forEach((name, count) -> out.printf("%s: %d%n", name, count.sum()));
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static class Endpoint {
+        private final ConcurrentHistogram latencies = new ConcurrentHistogram(MAX_LATENCY_US, 3);
+        private final LongAdder errors = new LongAdder();
+    }
+}
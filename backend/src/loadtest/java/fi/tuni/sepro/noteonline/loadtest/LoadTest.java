@@ -0,0 +1,245 @@
+package fi.tuni.sepro.noteonline.loadtest;
+
+import java.net.http.HttpClient;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import fi.tuni.sepro.noteonline.NoteonlineApplication;
+
+/**
+ * End-to-end load test. Starts the backend on an in-memory H2 database in PostgreSQL mode (or
+ * uses the server in loadtest.url), registers a pool of users and runs scenarios with an open
+ * model: new scenarios start at a fixed rate whether or not earlier ones have finished, so a slow
+ * server is not hidden by clients waiting for it. The first request of a scenario is measured
+ * from the time it was scheduled to start.
+ *
+ * Scenarios:
+ * - session: login, authstatus, list, create, update, list, delete
+ * - register: registration of a new user
+ *
+ * With loadtest.threadModes=platform,virtual the test is run on both request thread modes, so
+ * the results can be compared.
+ *
+ * See LoadTestConfig for settings.
+ */
+public class LoadTest {
+
+    private static final String PASSWORD = "LoadTest-Password-1";
+
+    private final LoadTestConfig config;
+    private final String baseUrl;
+    private final EndpointStats stats = new EndpointStats();
+    private final HttpClient httpClient;
+    private final ExecutorService workers;
+    private final Semaphore concurrency;
+    private final Queue<LoadTestClient> idleUsers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger userCount = new AtomicInteger();
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private final String header;
+    private final String content;
+
+    private volatile boolean running = true;
+
+    LoadTest(LoadTestConfig config, String baseUrl) {
+        this.config = config;
+        this.baseUrl = baseUrl;
+        this.workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "loadtest-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .executor(workers)
+            .build();
+        this.concurrency = new Semaphore(config.maxConcurrency);
+        this.header = "Load test note";
+        this.content = "x".repeat(config.noteLength);
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = new LoadTestConfig();
+
+        // Devtools would restart the application, and this main method with it
+        System.setProperty("spring.devtools.restart.enabled", "false");
+
+        if (!config.url.isEmpty()) {
+            new LoadTest(config, config.url).run();
+            System.exit(0);
+        }
+
+        for (String threadMode : config.threadModes) {
+            System.out.println("Starting server with " + threadMode + " request threads");
+            try (ConfigurableApplicationContext context = startServer(threadMode)) {
+                String port = context.getEnvironment().getProperty("local.server.port");
+                new LoadTest(config, "http://localhost:" + port).run();
+            }
+        }
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        System.out.println("Load test against " + baseUrl + ": " + config);
+        registerUsers();
+
+        List<Thread> arrivals = new ArrayList<>();
+        arrivals.add(startArrivals("session", config.sessionRate, this::runSession));
+        arrivals.add(startArrivals("register", config.registerRate, this::runRegister));
+
+        System.out.println("Warming up for " + config.warmupSeconds + " s");
+        Thread.sleep(TimeUnit.SECONDS.toMillis(config.warmupSeconds));
+        stats.reset();
+
+        System.out.println("Measuring for " + config.durationSeconds + " s");
+        Thread.sleep(TimeUnit.SECONDS.toMillis(config.durationSeconds));
+        running = false;
+        for (Thread thread : arrivals) {
+            thread.join();
+        }
+
+        // Requests in progress are still recorded, they were started during the measurement
+        if (!concurrency.tryAcquire(config.maxConcurrency, 2, TimeUnit.MINUTES)) {
+            System.out.println("Some scenarios did not finish in time");
+        }
+
+        System.out.println();
+        stats.print(System.out, config.durationSeconds);
+    }
+
+    /**
+     * Registers the user pool in parallel, with as many requests as the server can hash at once
+     */
+    private void registerUsers() throws Exception {
+        System.out.println("Registering " + config.users + " users");
+        List<Future<?>> registrations = new ArrayList<>();
+        ExecutorService registerPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        for (int i = 0; i < config.users; i++) {
+            registrations.add(registerPool.submit(() -> {
+                LoadTestClient client = newClient();
+                if (client.register(System.nanoTime())) {
+                    idleUsers.add(client);
+                }
+            }));
+        }
+        for (Future<?> registration : registrations) {
+            registration.get();
+        }
+        registerPool.shutdown();
+
+        if (idleUsers.isEmpty()) {
+            throw new IllegalStateException("No users could be registered");
+        }
+        stats.reset();
+    }
+
+    /**
+     * Starts scenarios at the given rate until the test ends
+     * @param name scenario name
+     * @param rate scenarios per second, no scenarios if 0
+     * @param scenario runs the scenario, gets the scheduled start time
+     * @return thread starting the scenarios
+     */
+    private Thread startArrivals(String name, double rate, LongConsumer scenario) {
+        Thread thread = new Thread(() -> {
+            if (rate <= 0) {
+                return;
+            }
+
+            long interval = (long)(TimeUnit.SECONDS.toNanos(1) / rate);
+            long next = System.nanoTime();
+            while (running) {
+                LockSupport.parkNanos(next - System.nanoTime());
+                long scheduledStart = next;
+                next += interval;
+
+                if (!concurrency.tryAcquire()) {
+                    stats.increment("dropped " + name + " (max concurrency)");
+                    continue;
+                }
+                workers.execute(() -> {
+                    try {
+                        scenario.accept(scheduledStart);
+                    }
+                    finally {
+                        concurrency.release();
+                    }
+                });
+            }
+        }, "loadtest-arrivals-" + name);
+        thread.start();
+        return thread;
+    }
+
+    private void runSession(long scheduledStart) {
+        // A user has one session token, so a user can't run two sessions at once
+        LoadTestClient client = idleUsers.poll();
+        if (client == null) {
+            stats.increment("dropped session (no idle user)");
+            return;
+        }
+
+        try {
+            boolean success = client.login(scheduledStart)
+                && client.authStatus()
+                && client.listNotes();
+            if (success) {
+                long id = client.createNote(header, content);
+                success = id >= 0
+                    && client.updateNote(id, header, content)
+                    && client.listNotes()
+                    && client.deleteNote(id);
+            }
+            stats.record("scenario session", scheduledStart, success);
+        }
+        finally {
+            idleUsers.add(client);
+        }
+    }
+
+    private void runRegister(long scheduledStart) {
+        newClient().register(scheduledStart);
+    }
+
+    private LoadTestClient newClient() {
+        String email = "user" + userCount.incrementAndGet() + "." + runId + "@loadtest.fi";
+        return new LoadTestClient(httpClient, baseUrl, stats, email, PASSWORD);
+    }
+
+    /**
+     * Starts the backend on a random port, with an in-memory database and without TLS
+     * @param threadMode platform or virtual request threads
+     */
+    private static ConfigurableApplicationContext startServer(String threadMode) {
+        byte[] jwtSecret = new byte[64];
+        new SecureRandom().nextBytes(jwtSecret);
+
+        // Command line arguments override application.properties
+        return new SpringApplicationBuilder(NoteonlineApplication.class).run(
+            "--server.port=0",
+            "--server.ssl.enabled=false",
+            "--spring.threads.virtual.enabled=" + threadMode.equals("virtual"),
+            "--spring.datasource.url=jdbc:h2:mem:loadtest-" + threadMode + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH",
+            "--spring.datasource.username=sa",
+            "--spring.datasource.password=",
+            "--spring.jpa.show-sql=false",
+            "--noteonline.app.jwtCookieName=noteonline-jwt",
+            "--noteonline.app.jwtSecret=" + Base64.getEncoder().encodeToString(jwtSecret),
+            "--noteonline.app.jwtExpirationMs=86400000",
+            "--logging.level.root=WARN");
+    }
+}
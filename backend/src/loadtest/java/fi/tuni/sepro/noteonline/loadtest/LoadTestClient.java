@@ -0,0 +1,154 @@
+package fi.tuni.sepro.noteonline.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * HTTP client of a single user. Cookies and the session token are kept between requests, like
+ * in the browser. Every request is recorded in the stats.
+ */
+class LoadTestClient {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Duration TIMEOUT = Duration.ofSeconds(60);
+
+    private final HttpClient httpClient;
+    private final String baseUrl;
+    private final EndpointStats stats;
+    private final String email;
+    private final String password;
+
+    private final Map<String, String> cookies = new LinkedHashMap<>();
+    private String sessionToken = "";
+
+    LoadTestClient(HttpClient httpClient, String baseUrl, EndpointStats stats, String email, String password) {
+        this.httpClient = httpClient;
+        this.baseUrl = baseUrl;
+        this.stats = stats;
+        this.email = email;
+        this.password = password;
+    }
+
+    boolean register(long startNanos) {
+        String body = json(Map.of("email", email, "password", password, "passwordRepeat", password));
+        return send("POST /api/register", "POST", "/api/register", body, 200, startNanos) != null;
+    }
+
+    boolean login(long startNanos) {
+        String body = json(Map.of("email", email, "password", password));
+        JsonNode response = send("POST /api/login", "POST", "/api/login", body, 200, startNanos);
+        if (response == null) {
+            return false;
+        }
+        sessionToken = response.path("sessionToken").asText("");
+        return true;
+    }
+
+    boolean authStatus() {
+        JsonNode response = send("GET /api/authstatus", "GET", "/api/authstatus", null, 200, System.nanoTime());
+        if (response == null || !response.hasNonNull("sessionToken")) {
+            return false;
+        }
+        sessionToken = response.get("sessionToken").asText();
+        return true;
+    }
+
+    boolean listNotes() {
+        return send("GET /api/notes", "GET", "/api/notes", null, 200, System.nanoTime()) != null;
+    }
+
+    /**
+     * @return id of the created note, or -1 if creating failed
+     */
+    long createNote(String header, String content) {
+        String body = json(Map.of("header", header, "content", content));
+        JsonNode response = send("POST /api/notes", "POST", "/api/notes", body, 201, System.nanoTime());
+        return response != null ? response.path("id").asLong(-1) : -1;
+    }
+
+    boolean updateNote(long id, String header, String content) {
+        String body = json(Map.of("header", header, "content", content));
+        return send("PUT /api/notes/{id}", "PUT", "/api/notes/" + id, body, 200, System.nanoTime()) != null;
+    }
+
+    boolean deleteNote(long id) {
+        return send("DELETE /api/notes/{id}", "DELETE", "/api/notes/" + id, null, 200, System.nanoTime()) != null;
+    }
+
+    /**
+     * Sends a request and records it
+     * @return parsed response body, empty object for non-JSON bodies, null if the request failed
+     */
+    private JsonNode send(String endpoint, String method, String path, String body, int expectedStatus, long startNanos) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+            .timeout(TIMEOUT)
+            .header("Content-Type", "application/json")
+            .header("X-CSRF-TOKEN", sessionToken)
+            .method(method, body != null ? HttpRequest.BodyPublishers.ofString(body) : HttpRequest.BodyPublishers.noBody());
+
+        synchronized (cookies) {
+            if (!cookies.isEmpty()) {
+                request.header("Cookie", cookies.entrySet().stream()
+                    .map(cookie -> cookie.getKey() + "=" + cookie.getValue())
+                    .collect(Collectors.joining("; ")));
+            }
+        }
+
+        try {
+            HttpResponse<String> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+            boolean success = response.statusCode() == expectedStatus;
+            stats.record(endpoint, startNanos, success);
+            if (!success) {
+                return null;
+            }
+
+            storeCookies(response);
+            String responseBody = response.body();
+            return responseBody.startsWith("{") ? MAPPER.readTree(responseBody) : MAPPER.createObjectNode();
+        }
+        catch (IOException e) {
+            stats.record(endpoint, startNanos, false);
+            return null;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private void storeCookies(HttpResponse<?> response) {
+        synchronized (cookies) {
+            for (String header : response.headers().allValues("Set-Cookie")) {
+                String pair = header.split(";", 2)[0];
+                int separator = pair.indexOf('=');
+                String name = pair.substring(0, separator).trim();
+                String value = pair.substring(separator + 1).trim();
+                if (value.isEmpty()) {
+                    cookies.remove(name);
+                }
+                else {
+                    cookies.put(name, value);
+                }
+            }
+        }
+    }
+
+    private static String json(Map<String, String> values) {
+        try {
+            return MAPPER.writeValueAsString(values);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package fi.tuni.sepro.noteonline.loadtest;
+
+import java.util.List;
+
+/**
+ * Load test settings, read from system properties (-Dloadtest.name=value)
+ */
+class LoadTestConfig {
+
+    // Server to test, an embedded server on an in-memory database is started when empty
+    final String url = System.getProperty("loadtest.url", "");
+
+    // Arrival rates per second, new scenarios start at this rate regardless of response times
+    final double sessionRate = Double.parseDouble(System.getProperty("loadtest.sessionRate", "5"));
+    final double registerRate = Double.parseDouble(System.getProperty("loadtest.registerRate", "0.5"));
+
+    final int warmupSeconds = Integer.getInteger("loadtest.warmupSeconds", 10);
+    final int durationSeconds = Integer.getInteger("loadtest.durationSeconds", 60);
+
+    // Registered before the test, a user runs one session scenario at a time
+    final int users = Integer.getInteger("loadtest.users", 50);
+
+    // Maximum scenarios in progress, arrivals over this are counted as dropped
+    final int maxConcurrency = Integer.getInteger("loadtest.maxConcurrency", 200);
+
+    final int noteLength = Integer.getInteger("loadtest.noteLength", 1000);
+
+    // Request thread modes of the embedded server, platform and/or virtual. Each mode is tested
+    // on its own server and database, one after another.
+    final List<String> threadModes = List.of(System.getProperty("loadtest.threadModes", "platform").split(","));
+
+    LoadTestConfig() {
+        for (String mode : threadModes) {
+            if (!mode.equals("platform") && !mode.equals("virtual")) {
+                throw new IllegalArgumentException("Unknown thread mode: " + mode);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("sessionRate=%s/s registerRate=%s/s warmup=%ss duration=%ss users=%d maxConcurrency=%d noteLength=%d",
+            sessionRate, registerRate, warmupSeconds, durationSeconds, users, maxConcurrency, noteLength);
+    }
+}
@@ -6,8 +6,7 @@ import org.springframework.context.event.EventListener;
 import org.springframework.security.authentication.event.AuthenticationFailureBadCredentialsEvent;
 import org.springframework.stereotype.Component;
 
-import fi.tuni.sepro.noteonline.models.User;
-import fi.tuni.sepro.noteonline.repository.UserRepository;
+import fi.tuni.sepro.noteonline.services.LoginAttemptStore;
 
 @Component
 public class AuthEventListener {
@@ -25,7 +24,7 @@ public class AuthEventListener {
     private long lockDurationHigh;
 
     @Autowired
-    private UserRepository userRepository;
+    private LoginAttemptStore loginAttemptStore;
     
     /**
      * Listens for failed authentications, and disables further login attempts if too many failures
@@ -36,13 +35,10 @@ public class AuthEventListener {
     public void authenticationFailed(AuthenticationFailureBadCredentialsEvent event) {
         String email = (String)event.getAuthentication().getPrincipal();
 
-        User user = userRepository.findUserByEmail(email);
-        if (user != null) {
-            int loginCount = user.getFailedLoginCount() + 1;
+        loginAttemptStore.update(email, current -> {
+            int loginCount = current.getFailedCount() + 1;
             long lockedUntil = 0;
 
-            user.setFailedLoginCount(loginCount);
-            
             if (loginCount >= lockCountHigh) {
                 lockedUntil = System.currentTimeMillis() + lockDurationHigh;
             }
@@ -50,10 +46,7 @@ public class AuthEventListener {
                 lockedUntil = System.currentTimeMillis() + lockDurationMin;
             }
 
-            user.setFailedLoginCount(loginCount);
-            user.setLockedUntil(lockedUntil);
-
-            userRepository.save(user);
-        }
+            return new LoginAttemptStore.LoginAttempts(loginCount, lockedUntil);
+        });
     }
 }
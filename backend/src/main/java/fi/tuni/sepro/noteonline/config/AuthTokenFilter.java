@@ -1,6 +1,7 @@
 package fi.tuni.sepro.noteonline.config;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,7 +12,12 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.web.filter.OncePerRequestFilter;
 
+import fi.tuni.sepro.noteonline.services.PrincipalCache;
+import fi.tuni.sepro.noteonline.services.UserDetailsImpl;
 import fi.tuni.sepro.noteonline.services.UserDetailsServiceImpl;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -24,27 +30,56 @@ public class AuthTokenFilter extends OncePerRequestFilter {
     @Autowired
     private UserDetailsServiceImpl userDetailsService;
 
+    @Autowired
+    private PrincipalCache principalCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Timer authenticatedTimer;
+    private Timer anonymousTimer;
+
     private static final Logger logger = LoggerFactory.getLogger(AuthTokenFilter.class);
 
+    @PostConstruct
+    public void initTimers() {
+        authenticatedTimer = authTimer("true");
+        anonymousTimer = authTimer("false");
+    }
+
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
             throws ServletException, IOException {
+        long start = System.nanoTime();
+        boolean authenticated = false;
         try {
             String jwt = jwtUtils.getJwtFromCookies(request);
-            if (jwt != null && jwtUtils.validateToken(jwt)) {
-                String email = jwtUtils.getUserNameFromToken(jwt);
-                UserDetails userDetails = userDetailsService.loadUserByUsername(email);
+            String email = jwt != null ? jwtUtils.validateAndGetSubject(jwt) : null;
+            if (email != null) {
+                UserDetails userDetails = principalCache.get(email, 
+                    username -> (UserDetailsImpl)userDetailsService.loadUserByUsername(username));
 
                 UsernamePasswordAuthenticationToken authentication 
                     = new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
                 authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
                 SecurityContextHolder.getContext().setAuthentication(authentication);
+                authenticated = true;
             }
         } 
         catch (Exception e) {
             logger.error("Cannot set user authentication: {}", e);
         }
 
+        // Only authentication is timed, the rest of the chain is in http.server.requests
+        (authenticated ? authenticatedTimer : anonymousTimer).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
         filterChain.doFilter(request, response);
     }
+
+    private Timer authTimer(String authenticated) {
+        return Timer.builder("noteonline.auth.filter")
+            .tag("authenticated", authenticated)
+            .description("Request authentication from the JWT cookie")
+            .register(meterRegistry);
+    }
 }
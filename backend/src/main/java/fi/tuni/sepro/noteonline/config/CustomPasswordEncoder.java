@@ -3,6 +3,9 @@ package fi.tuni.sepro.noteonline.config;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.crypto.scrypt.SCryptPasswordEncoder;
 
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
 /** 
  * Password encoder used for storing login credentials
  * Current implementation uses scrypt for generating hashes, recommended by OWASP
@@ -23,12 +26,19 @@ public class CustomPasswordEncoder implements PasswordEncoder {
 
     private final SCryptPasswordEncoder encoder;
 
+    // The encoder is created before the meter registry, so the global registry is used
+    private final Timer encodeTimer = hashTimer("encode");
+    private final Timer matchesTimer = hashTimer("matches");
+
     // Scrypt configuration
-    private final int SCRYPT_CPU_COST = 65536;
-    private final int SCRYPT_MEMORY_COST = 8;
-    private final int SCRYPT_PARALLELIZATION = 1;
-    private final int SCRYPT_KEY_LENGTH = 32;
-    private final int SCRYPT_SALT_LENGTH = 16;
+    private static final int SCRYPT_CPU_COST = 65536;
+    private static final int SCRYPT_MEMORY_COST = 8;
+    private static final int SCRYPT_PARALLELIZATION = 1;
+    private static final int SCRYPT_KEY_LENGTH = 32;
+    private static final int SCRYPT_SALT_LENGTH = 16;
+
+    // Memory used by a single hash, 128 * N * r bytes
+    public static final long MEMORY_BYTES = 128L * SCRYPT_CPU_COST * SCRYPT_MEMORY_COST;
 
     public CustomPasswordEncoder() {
         encoder = new SCryptPasswordEncoder(SCRYPT_CPU_COST, SCRYPT_MEMORY_COST, 
@@ -37,11 +47,19 @@ public class CustomPasswordEncoder implements PasswordEncoder {
 
     @Override
     public String encode(CharSequence rawPassword) {
-        return encoder.encode(rawPassword);
+        return encodeTimer.record(() -> encoder.encode(rawPassword));
     }
 
     @Override
     public boolean matches(CharSequence rawPassword, String encodedPassword) {
-        return encoder.matches(rawPassword, encodedPassword);
+        return matchesTimer.record(() -> encoder.matches(rawPassword, encodedPassword));
+    }
+
+    private static Timer hashTimer(String operation) {
+        return Timer.builder("noteonline.password.hash")
+            .tag("algorithm", "scrypt")
+            .tag("operation", operation)
+            .description("Password hashing")
+            .register(Metrics.globalRegistry);
     }
 }
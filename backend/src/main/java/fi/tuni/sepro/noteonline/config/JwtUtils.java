@@ -1,7 +1,12 @@
 package fi.tuni.sepro.noteonline.config;
 
-import java.security.Key;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 
 import javax.crypto.SecretKey;
 
@@ -14,12 +19,16 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.util.WebUtils;
 
 import fi.tuni.sepro.noteonline.services.UserDetailsImpl;
+import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.MalformedJwtException;
 import io.jsonwebtoken.UnsupportedJwtException;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
 import jakarta.servlet.http.Cookie;
 import jakarta.servlet.http.HttpServletRequest;
 
@@ -35,7 +44,27 @@ public class JwtUtils {
 
     @Value("${noteonline.app.jwtExpirationMs}")
     private int jwtExpirationMs;
+
+    @Value("${noteonline.app.jwtVerifiedCacheMaxEntries}")
+    private int verifiedTokenCacheSize;
+
+    // Built once, both are immutable and thread safe
+    private SecretKey key;
+    private JwtParser parser;
+
+    // Access ordered, so the first entry is always the least recently used one
+    private final LinkedHashMap<String, VerifiedToken> verifiedTokens = new LinkedHashMap<>(16, 0.75f, true);
+
+    @PostConstruct
+    void init() {
+        key = Keys.hmacShaKeyFor(Decoders.BASE64.decode(jwtSecret));
+        parser = Jwts.parser().verifyWith(key).build();
+    }
     
+    public int getJwtExpirationMs() {
+        return jwtExpirationMs;
+    }
+
     public String getJwtFromCookies(HttpServletRequest request) {
         Cookie cookie = WebUtils.getCookie(request, jwtCookieName);
         if (cookie != null) {
@@ -63,28 +92,49 @@ public class JwtUtils {
         return cookie;
     }
 
-    public boolean validateToken(String authToken) {
+    /**
+     * Verifies the given token and gets its subject. Tokens that were already verified are
+     * accepted from the cache until they expire, without checking the signature again.
+     * @param authToken JWT from the request
+     * @return user name in the token, or null if the token is not valid
+     */
+    public String validateAndGetSubject(String authToken) {
+        String digest = digest(authToken);
+        long now = System.currentTimeMillis();
+
+        synchronized (verifiedTokens) {
+            VerifiedToken cached = verifiedTokens.get(digest);
+            if (cached != null) {
+                if (cached.expiresAt > now) {
+                    return cached.subject;
+                }
+                verifiedTokens.remove(digest);
+            }
+        }
+
         try {
-            Jwts.parser().verifyWith((SecretKey)getKey()).build().parse(authToken);
-            return true;
+            Claims claims = parser.parseSignedClaims(authToken).getPayload();
+            String subject = claims.getSubject();
+            if (subject != null && claims.getExpiration() != null) {
+                synchronized (verifiedTokens) {
+                    verifiedTokens.put(digest, new VerifiedToken(subject, claims.getExpiration().getTime()));
+                    trimToSize();
+                }
+            }
+            return subject;
         } catch (MalformedJwtException e) {
             logger.error("Invalid JWT token: {}", e.getMessage());
         } catch (ExpiredJwtException e) {
             logger.error("Expired JWT token: {}", e.getMessage());
         } catch (UnsupportedJwtException e) {
             logger.error("Unsupported JWT token: {}", e.getMessage());
+        } catch (JwtException e) {
+            logger.error("JWT token could not be verified: {}", e.getMessage());
         } catch (IllegalArgumentException e) {
             logger.error("JWT claims string is empty: {}", e.getMessage());
         }
 
-        return false;
-    }
-
-    public String getUserNameFromToken(String token) {
-        return Jwts.parser().verifyWith((SecretKey)getKey()).build()
-            .parseSignedClaims(token)
-            .getPayload()
-            .getSubject();
+        return null;
     }
 
     public String generateTokenFromUserName(String username) {
@@ -93,11 +143,39 @@ public class JwtUtils {
             .subject(username)
             .issuedAt(currentDate)
             .expiration(new Date(currentDate.getTime() + jwtExpirationMs))
-            .signWith(getKey())     // JWT will automatically sign with HS256
+            .signWith(key)     // JWT will automatically sign with HS256
             .compact();
     }
 
-    private Key getKey() {
-        return Keys.hmacShaKeyFor(Decoders.BASE64.decode(jwtSecret));
+    private void trimToSize() {
+        Iterator<VerifiedToken> iterator = verifiedTokens.values().iterator();
+        while (verifiedTokens.size() > verifiedTokenCacheSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Creates the cache key of a token, so tokens themselves are not kept in memory
+     * @param token JWT
+     * @return Base64 encoded SHA-256 hash of the token
+     */
+    private static String digest(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class VerifiedToken {
+        private final String subject;
+        private final long expiresAt;
+
+        VerifiedToken(String subject, long expiresAt) {
+            this.subject = subject;
+            this.expiresAt = expiresAt;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,31 @@
+package fi.tuni.sepro.noteonline.config;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import fi.tuni.sepro.noteonline.services.KdfExecutor;
+
+/**
+ * Reports the instance out of service while the password hashing queue is full, so a load
+ * balancer can send logins to other instances. Part of the readiness group.
+ */
+@Component
+public class KdfHealthIndicator implements HealthIndicator {
+
+    private final KdfExecutor kdfExecutor;
+
+    KdfHealthIndicator(KdfExecutor kdfExecutor) {
+        this.kdfExecutor = kdfExecutor;
+    }
+
+    @Override
+    public Health health() {
+        Health.Builder builder = kdfExecutor.isSaturated() ? Health.outOfService() : Health.up();
+        return builder
+            .withDetail("threads", kdfExecutor.getThreadCount())
+            .withDetail("active", kdfExecutor.getActiveCount())
+            .withDetail("queued", kdfExecutor.getQueueDepth())
+            .build();
+    }
+}
@@ -61,7 +61,10 @@ public class SecurityConfig {
         .exceptionHandling(exception -> exception.authenticationEntryPoint(unauthorizedHandler))
         .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
         .authorizeHttpRequests(
-            auth -> auth.requestMatchers("/api/**").permitAll().anyRequest().authenticated())
+            auth -> auth.requestMatchers("/api/**").permitAll()
+                .requestMatchers("/actuator/health", "/actuator/health/**").permitAll()
+                .requestMatchers("/actuator/**").hasRole("ADMIN")
+                .anyRequest().authenticated())
         .headers((headers) -> 
             headers.xssProtection(Customizer.withDefaults())
             .contentSecurityPolicy(config -> config.policyDirectives("default-src 'self'; form-action 'self'")));
@@ -1,11 +1,13 @@
 package fi.tuni.sepro.noteonline.controllers;
 
+import java.security.GeneralSecurityException;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseCookie;
@@ -17,6 +19,7 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.CookieValue;
 import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -31,11 +34,20 @@ import fi.tuni.sepro.noteonline.dto.LoginRequestDto;
 import fi.tuni.sepro.noteonline.dto.RegisterRequestDto;
 import fi.tuni.sepro.noteonline.dto.UnregisteredResponseDto;
 import fi.tuni.sepro.noteonline.dto.UserResponseDto;
+import fi.tuni.sepro.noteonline.exception.KdfSaturatedException;
 import fi.tuni.sepro.noteonline.models.ERole;
 import fi.tuni.sepro.noteonline.models.Role;
 import fi.tuni.sepro.noteonline.models.User;
 import fi.tuni.sepro.noteonline.repository.RoleRepository;
 import fi.tuni.sepro.noteonline.repository.UserRepository;
+import fi.tuni.sepro.noteonline.services.CryptoEngine;
+import fi.tuni.sepro.noteonline.services.DataKeyService;
+import fi.tuni.sepro.noteonline.services.KdfExecutor;
+import fi.tuni.sepro.noteonline.services.KeyEncryptionKeyCache;
+import fi.tuni.sepro.noteonline.services.LoginAttemptStore;
+import fi.tuni.sepro.noteonline.services.NoteListingCache;
+import fi.tuni.sepro.noteonline.services.PrincipalCache;
+import fi.tuni.sepro.noteonline.services.SessionStore;
 import fi.tuni.sepro.noteonline.services.UserDetailsImpl;
 import fi.tuni.sepro.noteonline.utils.LoginUtils;
 
@@ -57,6 +69,36 @@ public class AuthController {
     @Autowired
     private JwtUtils jwtUtils;
 
+    @Autowired
+    private KeyEncryptionKeyCache keyCache;
+
+    @Autowired
+    private NoteListingCache listingCache;
+
+    @Autowired
+    private DataKeyService dataKeyService;
+
+    @Autowired
+    private CryptoEngine cryptoEngine;
+
+    @Autowired
+    private SessionStore sessionStore;
+
+    @Value("${noteonline.app.sessionRefreshWindowMs}")
+    private long sessionRefreshWindowMs;
+
+    @Autowired
+    private KdfExecutor kdfExecutor;
+
+    @Autowired
+    private LoginAttemptStore loginAttemptStore;
+
+    @Autowired
+    private PrincipalCache principalCache;
+
+    @Value("${noteonline.app.kdfRetryAfterSeconds}")
+    private int kdfRetryAfterSeconds;
+
     @CrossOrigin(allowCredentials = "true", origins = SecurityConfig.CORS_ORIGIN)
     @GetMapping("/authstatus")
     public ResponseEntity<?> checkUserStatus(@CookieValue(name = "encKey", defaultValue = "") String encKey) {
@@ -68,16 +110,25 @@ public class AuthController {
                 
             Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
             UserDetailsImpl userDetails = (UserDetailsImpl)authentication.getPrincipal();
+            List<String> roles = userDetails.getAuthorities().stream()
+                .map(item -> item.getAuthority())
+                .collect(Collectors.toList());
+
+            // Session and cookies are renewed only when the session is about to expire,
+            // so page refreshes don't need to write anything
+            long now = System.currentTimeMillis();
+            SessionStore.Session session = sessionStore.get(userDetails.getId());
+            if (session != null && session.getExpiresAt() - now > sessionRefreshWindowMs) {
+                return ResponseEntity.ok()
+                    .body(new UserResponseDto(userDetails.getId(), userDetails.getUsername(), roles, session.getToken()));
+            }
 
-            // Generate new session token on page refresh
-            String sessionToken = LoginUtils.generateSessionToken();
-            User user = userRepository.findUserByEmail(userDetails.getUsername());
-            user.setSessionToken(sessionToken);
-            userRepository.save(user);
+            String sessionToken = LoginUtils.generateSessionToken(cryptoEngine);
+            sessionStore.put(userDetails.getId(), sessionToken, now + jwtUtils.getJwtExpirationMs());
 
             UserResponseDto response = new UserResponseDto(userDetails.getId(), 
             userDetails.getUsername(), 
-            userDetails.getAuthorities().stream().map(item -> item.getAuthority()).collect(Collectors.toList()),
+            roles,
             sessionToken);
 
             // Generate a new cookies to refresh expiration date
@@ -106,17 +157,23 @@ public class AuthController {
 
     @CrossOrigin(allowCredentials = "true", origins = SecurityConfig.CORS_ORIGIN)
     @PostMapping("/login")
-    public ResponseEntity<?> authenticateUser(@RequestBody LoginRequestDto loginDto) {
+    public ResponseEntity<?> authenticateUser(@RequestBody LoginRequestDto loginDto) throws KdfSaturatedException {
 
         // Check lock status
         User user = userRepository.findUserByEmail(loginDto.getEmail());
-        if (user.getLockedUntil() > System.currentTimeMillis()) {
+        if (user == null || loginAttemptStore.get(user).isLocked(System.currentTimeMillis())) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
         }
 
-        AuthDto passData = LoginUtils.generateLoginHash(user, loginDto.getPassword());
-        Authentication authentication = authenticationManager.authenticate(
-            new UsernamePasswordAuthenticationToken(loginDto.getEmail(), passData.getHash()));
+        // Both hashes are memory heavy, so they are run on the hashing pool
+        record LoginResult(AuthDto passData, Authentication authentication) {}
+        LoginResult result = kdfExecutor.run(() -> {
+            AuthDto hash = LoginUtils.generateLoginHash(user, loginDto.getPassword());
+            return new LoginResult(hash, authenticationManager.authenticate(
+                new UsernamePasswordAuthenticationToken(loginDto.getEmail(), hash.getHash())));
+        });
+        AuthDto passData = result.passData();
+        Authentication authentication = result.authentication();
 
         SecurityContextHolder.getContext().setAuthentication(authentication);
         UserDetailsImpl userDetails = (UserDetailsImpl)authentication.getPrincipal();
@@ -128,13 +185,12 @@ public class AuthController {
             .map(item -> item.getAuthority())
             .collect(Collectors.toList());
 
-        String sessionToken = LoginUtils.generateSessionToken();
+        String sessionToken = LoginUtils.generateSessionToken(cryptoEngine);
 
-        // Reset failed login counts
-        user.setFailedLoginCount(0);
-        user.setLockedUntil(0);
-        user.setSessionToken(sessionToken);
-        userRepository.save(user);
+        sessionStore.put(userDetails.getId(), sessionToken, System.currentTimeMillis() + jwtUtils.getJwtExpirationMs());
+
+        // Reset failed login counts, only written if there were failures
+        loginAttemptStore.update(user.getEmail(), current -> LoginAttemptStore.LoginAttempts.NONE);
 
         // Return user object with id, email and roles
         UserResponseDto responseBody = new UserResponseDto(userDetails.getId(), 
@@ -148,7 +204,7 @@ public class AuthController {
 
     @CrossOrigin(allowCredentials = "true", origins = SecurityConfig.CORS_ORIGIN)
     @PostMapping("/register")
-    public ResponseEntity<?> registerUser(@RequestBody RegisterRequestDto registerDto) {
+    public ResponseEntity<?> registerUser(@RequestBody RegisterRequestDto registerDto) throws KdfSaturatedException {
 
         // Input validations
         if (!LoginUtils.isValidPassword(registerDto.getPassword())) {
@@ -161,13 +217,27 @@ public class AuthController {
             return new ResponseEntity<>("Password and repeat do not match!", HttpStatus.BAD_REQUEST);
         }
 
-        AuthDto passData = LoginUtils.generateNewHash(registerDto.getPassword());
+        // Both hashes are memory heavy, so they are run on the hashing pool
+        record RegisterHashes(AuthDto passData, String encodedPassword) {}
+        RegisterHashes hashes = kdfExecutor.run(() -> {
+            AuthDto hash = LoginUtils.generateNewHash(cryptoEngine, registerDto.getPassword());
+            return new RegisterHashes(hash, passwordEncoder.encode(hash.getHash()));
+        });
+        AuthDto passData = hashes.passData();
 
         User user = new User();
         user.setEmail(registerDto.getEmail());
-        user.setPassword(passwordEncoder.encode(passData.getHash()));
+        user.setPassword(hashes.encodedPassword());
         user.setSalt(passData.getSalt());
 
+        // Data key for note encryption, wrapped with the users encryption key
+        try {
+            dataKeyService.assignNewDataKey(user, passData.getHash());
+        }
+        catch (GeneralSecurityException e) {
+            return new ResponseEntity<>("Account could not be created!", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+
         // Add user role to a new account by default
         Set<Role> roles = new HashSet<>();
         Role userRole = roleRepository.findByRoleName(ERole.ROLE_USER).orElseThrow(() -> new RuntimeException("Roles are not defined!"));
@@ -185,14 +255,23 @@ public class AuthController {
 
     @CrossOrigin(allowCredentials = "true", origins = SecurityConfig.CORS_ORIGIN)
     @PostMapping("/logout")
-    public ResponseEntity<?> logoutUser(@RequestHeader(name = "X-CSRF-TOKEN", defaultValue = "") String sessionToken) {
+    public ResponseEntity<?> logoutUser(@RequestHeader(name = "X-CSRF-TOKEN", defaultValue = "") String sessionToken,
+        @CookieValue(name = "encKey", defaultValue = "") String encKey) {
 
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         UserDetailsImpl userDetails = (UserDetailsImpl)authentication.getPrincipal();
 
-        if (!userDetails.getSessionToken().equals(sessionToken)) {
+        if (!sessionStore.isValid(userDetails.getId(), sessionToken)) {
             return new ResponseEntity<>("Invalid session token provided!", HttpStatus.BAD_REQUEST); 
         }
+        sessionStore.remove(userDetails.getId());
+        principalCache.invalidate(userDetails.getUsername());
+
+        // Derived keys and cached listings are useless after the encryption cookie is cleared
+        if (!encKey.isBlank()) {
+            keyCache.evictSession(encKey);
+            listingCache.evictSession(encKey);
+        }
 
         ResponseCookie jwtCookie = jwtUtils.getCleanJwtCookie();
         ResponseCookie encryptionCookie = LoginUtils.generateCleanEncryptionCookie();
@@ -201,4 +280,16 @@ public class AuthController {
             .header(HttpHeaders.SET_COOKIE, encryptionCookie.toString())
             .body(new String("Logged out!"));
     }
+
+    /**
+     * Responds with 503 when password hashing is saturated, client may retry after a while
+     * @param e exception thrown by KdfExecutor
+     * @return 503 response with Retry-After header
+     */
+    @ExceptionHandler(KdfSaturatedException.class)
+    public ResponseEntity<?> handleKdfSaturated(KdfSaturatedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(kdfRetryAfterSeconds))
+            .body(new String("Server is busy, try again later"));
+    }
 }
@@ -1,11 +1,20 @@
 package fi.tuni.sepro.noteonline.controllers;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
@@ -20,35 +29,85 @@ import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import fi.tuni.sepro.noteonline.config.SecurityConfig;
+import fi.tuni.sepro.noteonline.dto.NoteBatchResultDto;
 import fi.tuni.sepro.noteonline.dto.NoteCreateRequestDto;
-import fi.tuni.sepro.noteonline.dto.NoteDetailsResponseDto;
+import fi.tuni.sepro.noteonline.dto.NoteDetailsPageDto;
+import fi.tuni.sepro.noteonline.exception.ChangeCursorExpiredException;
 import fi.tuni.sepro.noteonline.exception.NoteCountLimitException;
+import fi.tuni.sepro.noteonline.exception.NoteDecryptionException;
 import fi.tuni.sepro.noteonline.exception.NoteEncryptionException;
+import fi.tuni.sepro.noteonline.exception.NoteStorageLimitException;
 import fi.tuni.sepro.noteonline.models.ERole;
 import fi.tuni.sepro.noteonline.models.Note;
+import fi.tuni.sepro.noteonline.repository.NoteVersionView;
 import fi.tuni.sepro.noteonline.services.NoteService;
+import fi.tuni.sepro.noteonline.services.SessionStore;
 import fi.tuni.sepro.noteonline.services.UserDetailsImpl;
+import fi.tuni.sepro.noteonline.utils.NoteChangeCursor;
+import fi.tuni.sepro.noteonline.utils.NoteCursor;
 import fi.tuni.sepro.noteonline.utils.NoteUtils;
 
 @RestController
 @RequestMapping("/api/notes")
 public class NoteController {
 
+    // Response header carrying the cursor of the next page
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    // Content type of streamed listings, one JSON object per line
+    public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+    private static final String MISSING_KEY_MESSAGE = "Encryption key is required";
+
     private final NoteService noteService;
+    private final ObjectMapper objectMapper;
+    private final SessionStore sessionStore;
+
+    @Value("${noteonline.app.streamFlushInterval}")
+    private int streamFlushInterval;
+
+    @Value("${noteonline.app.noteBatchMaxSize}")
+    private int noteBatchMaxSize;
+
+    @Value("${noteonline.app.storageStatsTopMax}")
+    private int storageStatsTopMax;
 
     @Autowired
-    public NoteController(NoteService noteService) {
+    public NoteController(NoteService noteService, ObjectMapper objectMapper, SessionStore sessionStore) {
         this.noteService = noteService;
+        this.objectMapper = objectMapper;
+        this.sessionStore = sessionStore;
     }
 
     @GetMapping
     @PreAuthorize("hasRole('ROLE_USER') or hasRole('ROLE_ADMIN')")
-    @CrossOrigin(allowCredentials = "true", origins = SecurityConfig.CORS_ORIGIN)
-    public ResponseEntity<List<NoteDetailsResponseDto>> getAllNoteDetails(
-        @CookieValue(name = "encKey", defaultValue = "") String encKey) {
+    @CrossOrigin(allowCredentials = "true", origins = SecurityConfig.CORS_ORIGIN, 
+        exposedHeaders = { NEXT_CURSOR_HEADER, HttpHeaders.ETAG })
+    public ResponseEntity<?> getAllNoteDetails(
+        @CookieValue(name = "encKey", defaultValue = "") String encKey,
+        @RequestParam(name = "sort", defaultValue = "modified") String sort,
+        @RequestParam(name = "cursor", defaultValue = "") String cursor,
+        @RequestParam(name = "size", required = false) Integer size,
+        WebRequest request) {
+
+        NoteCursor position;
+        try {
+            position = NoteCursor.decode(cursor, NoteCursor.parseSort(sort));
+        }
+        catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new String("Invalid cursor or sort order"));
+        }
+
+        // Clients that ask for neither a cursor nor a page size get all notes, as before paging
+        int pageSize = size != null ? Math.max(size, 0) : cursor.isEmpty() ? NoteService.UNPAGED : 0;
 
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         UserDetailsImpl userDetails = (UserDetailsImpl)authentication.getPrincipal();
@@ -58,17 +117,143 @@ public class NoteController {
             .collect(Collectors.toList());
 
         // For non-admin users, only return notes that the user has created
-        List<NoteDetailsResponseDto> notes;
+        NoteDetailsPageDto page;
+        String etag = null;
         if (!roles.contains(ERole.ROLE_ADMIN.name())) {
-            notes = noteService.getNoteDetailsByUser(userDetails.getId(), encKey);
+            // Headers are only decrypted if the list version has changed. Without the key, or with a
+            // key that doesn't unwrap the data key, headers are returned encrypted, so those
+            // responses don't get an ETag. Otherwise a later request with the right key could get
+            // 304 for encrypted headers.
+            Long listVersion = encKey.isBlank() ? null : noteService.getListVersion(userDetails.getId());
+            if (listVersion != null) {
+                etag = listETag(userDetails.getId(), listVersion);
+                // Compared without checkNotModified, which would add the ETag before it's known
+                // whether the headers can be decrypted
+                if (matchesETag(request, etag)) {
+                    return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+                }
+            }
+            page = noteService.getNoteDetailsByUser(userDetails.getId(), encKey, position, pageSize, listVersion);
         }
 
         // Admins get all notes encrypted
         else {
-            notes = noteService.getAllNoteDetails();
+            page = noteService.getAllNoteDetails(position, pageSize);
+        }
+
+        // Next page is requested with the cursor, no header on the last page
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        if (etag != null && page.isDecrypted()) {
+            response.eTag(etag);
+        }
+        return response.body(page.getNotes());
+    }
+
+    @GetMapping("/changes")
+    @PreAuthorize("hasRole('ROLE_USER') or hasRole('ROLE_ADMIN')")
+    @CrossOrigin(allowCredentials = "true", origins = SecurityConfig.CORS_ORIGIN)
+    public ResponseEntity<?> getNoteChanges(
+        @CookieValue(name = "encKey", defaultValue = "") String encKey,
+        @RequestParam(name = "since", defaultValue = "") String since,
+        @RequestParam(name = "size", defaultValue = "0") int size) {
+
+        NoteChangeCursor cursor;
+        try {
+            cursor = NoteChangeCursor.decode(since);
+        }
+        catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new String("Invalid cursor"));
         }
 
-        return ResponseEntity.ok(notes);
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        UserDetailsImpl userDetails = (UserDetailsImpl)authentication.getPrincipal();
+        boolean admin = userDetails.getAuthorities().stream()
+            .anyMatch(item -> item.getAuthority().equals(ERole.ROLE_ADMIN.name()));
+
+        // Same visibility as the note listing, admins get all notes encrypted
+        try {
+            return ResponseEntity.ok(admin 
+                ? noteService.getAllNoteChanges(cursor, size)
+                : noteService.getNoteChangesByUser(userDetails.getId(), encKey, cursor, size));
+        }
+        catch (ChangeCursorExpiredException e) {
+            return ResponseEntity.status(HttpStatus.GONE).body(new String(e.getMessage()));
+        }
+    }
+
+    @GetMapping("/search")
+    @PreAuthorize("hasRole('ROLE_USER') or hasRole('ROLE_ADMIN')")
+    @CrossOrigin(allowCredentials = "true", origins = SecurityConfig.CORS_ORIGIN)
+    public ResponseEntity<?> searchNotes(
+        @CookieValue(name = "encKey", defaultValue = "") String encKey,
+        @RequestParam(name = "q", defaultValue = "") String query,
+        @RequestParam(name = "size", defaultValue = "0") int size) {
+
+        if (encKey.isBlank()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new String(MISSING_KEY_MESSAGE));
+        }
+        if (query.isBlank()) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new String("Search query is required"));
+        }
+
+        // Only own notes can be searched, the index is keyed with the data key of the user
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        UserDetailsImpl userDetails = (UserDetailsImpl)authentication.getPrincipal();
+        try {
+            return ResponseEntity.ok(noteService.searchNotes(userDetails.getId(), encKey, query, size));
+        }
+        catch (NoteDecryptionException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new String("Note decryption failed!"));
+        }
+    }
+
+    @GetMapping(value = "/stream", produces = NDJSON_CONTENT_TYPE)
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    @CrossOrigin(allowCredentials = "true", origins = SecurityConfig.CORS_ORIGIN)
+    public ResponseEntity<StreamingResponseBody> streamAllNoteDetails() {
+
+        // Admins only get encrypted notes. Notes are written as they are read from the database,
+        // flushing periodically so the client receives data right away.
+        StreamingResponseBody body = outputStream -> {
+            int[] written = { 0 };
+            try {
+                noteService.forEachNoteDetails(note -> {
+                    try {
+                        outputStream.write(objectMapper.writeValueAsBytes(note));
+                        outputStream.write('\n');
+                        if (++written[0] % streamFlushInterval == 0) {
+                            outputStream.flush();
+                        }
+                    }
+                    catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+            catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            outputStream.flush();
+        };
+
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType(NDJSON_CONTENT_TYPE))
+            .body(body);
+    }
+
+    @GetMapping("/storage")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    @CrossOrigin(allowCredentials = "true", origins = SecurityConfig.CORS_ORIGIN)
+    public ResponseEntity<?> getStorageStats(@RequestParam(name = "top", defaultValue = "10") int top) {
+        if (top < 0) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new String("Invalid number of top users"));
+        }
+
+        // Read from the usage ledger, notes are not scanned
+        return ResponseEntity.ok(noteService.getStorageStats(Math.min(top, storageStatsTopMax)));
     }
 
     @PostMapping
@@ -84,6 +269,11 @@ public class NoteController {
                 .body(new String("Missing session token"));
         }
 
+        // Notes are encrypted with the key from the cookie
+        if (encKey.isBlank()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new String(MISSING_KEY_MESSAGE));
+        }
+
         // Check note is valid
         if (!NoteUtils.isValidHeader(noteData.getHeader()) || !NoteUtils.isValidContent(noteData.getContent())) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new String("Invalid note content!"));
@@ -92,7 +282,7 @@ public class NoteController {
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         UserDetailsImpl userDetails = (UserDetailsImpl)authentication.getPrincipal();
 
-        if (!userDetails.getSessionToken().equals(sessionToken)) {
+        if (!sessionStore.isValid(userDetails.getId(), sessionToken)) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                 .body(new String("Invalid session token"));
         }
@@ -113,6 +303,9 @@ public class NoteController {
         catch (NoteCountLimitException e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new String("Note limit reached"));
         }
+        catch (NoteStorageLimitException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new String("Note storage limit reached"));
+        }
         catch (NoteEncryptionException e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new String("Note encryption failed!"));
         } 
@@ -120,9 +313,10 @@ public class NoteController {
 
     @GetMapping("/{id}")
     @PreAuthorize("hasRole('ROLE_USER') or hasRole('ROLE_ADMIN')")
-    @CrossOrigin(allowCredentials = "true", origins = SecurityConfig.CORS_ORIGIN)
+    @CrossOrigin(allowCredentials = "true", origins = SecurityConfig.CORS_ORIGIN, exposedHeaders = HttpHeaders.ETAG)
     public ResponseEntity<?> getNoteById(@PathVariable Long id, 
-        @CookieValue(name="encKey", defaultValue = "") String encKey) {
+        @CookieValue(name="encKey", defaultValue = "") String encKey,
+        WebRequest request) {
 
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         UserDetailsImpl userDetails = (UserDetailsImpl)authentication.getPrincipal();
@@ -131,20 +325,26 @@ public class NoteController {
             .map(item -> item.getAuthority())
             .collect(Collectors.toList());
 
-        Note note = noteService.getNoteById(id);
+        // Only metadata is read before the ETag check, unchanged notes are never loaded or decrypted
+        NoteVersionView version = noteService.getNoteVersion(id);
 
         // Users have only access to their own notes, which will be decrypted
         if (!roles.contains(ERole.ROLE_ADMIN.name())) {
-             if (note.getOwner() != userDetails.getId()) {
+             if (version.getOwner() != userDetails.getId()) {
                 return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new String("Unauthorized access to note!"));
              }
              else {
                 try {
                     if (encKey.isBlank())
                         throw new Exception("No encryption cookie received in request!");
+                    if (request.checkNotModified(noteETag(id, version.getModifiedAt(), false))) {
+                        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+                    }
                     Note decrypted = noteService.getNoteByIdDecrypted(id, encKey);
                     
-                    return ResponseEntity.ok(noteService.createResponse(decrypted));
+                    return ResponseEntity.ok()
+                        .eTag(noteETag(id, decrypted.getModifiedAt(), false))
+                        .body(noteService.createResponse(decrypted));
                 } 
                 catch (Exception e) {
                     return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new String(e.getMessage()));
@@ -153,7 +353,13 @@ public class NoteController {
         }
         else {
             // Admins only get encrypted note
-            return ResponseEntity.ok(noteService.createDetailsResponse(note));
+            if (request.checkNotModified(noteETag(id, version.getModifiedAt(), true))) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+            }
+            Note note = noteService.getNoteById(id);
+            return ResponseEntity.ok()
+                .eTag(noteETag(id, note.getModifiedAt(), true))
+                .body(noteService.createDetailsResponse(note));
         }        
     }
 
@@ -166,10 +372,14 @@ public class NoteController {
         @CookieValue(name = "encKey", defaultValue = "") String encKey,
         @RequestHeader(name = "X-CSRF-TOKEN", defaultValue = "") String sessionToken) {
 
+        if (encKey.isBlank()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new String(MISSING_KEY_MESSAGE));
+        }
+
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         UserDetailsImpl userDetails = (UserDetailsImpl)authentication.getPrincipal();
 
-        if (!userDetails.getSessionToken().equals(sessionToken)) {
+        if (!sessionStore.isValid(userDetails.getId(), sessionToken)) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new String("Unauthorized update!"));
         }
 
@@ -198,6 +408,8 @@ public class NoteController {
             updatedNote.setContent(details.getContent().getBytes(StandardCharsets.UTF_8));
 
         return ResponseEntity.ok(noteService.createResponse(updatedNote));
+        } catch (NoteStorageLimitException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new String("Note storage limit reached"));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new String("Unauthorized update!"));
         } 
@@ -214,7 +426,7 @@ public class NoteController {
         UserDetailsImpl userDetails = (UserDetailsImpl)authentication.getPrincipal();
 
         // Any user must have valid session token provided
-        if (!userDetails.getSessionToken().equals(sessionToken)) {
+        if (!sessionStore.isValid(userDetails.getId(), sessionToken)) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new String("Unauthorized delete!"));
         }
 
@@ -237,4 +449,164 @@ public class NoteController {
             return ResponseEntity.ok(id);
         }
     }
+
+    @PostMapping("/batch")
+    @PreAuthorize("hasRole('ROLE_USER') or hasRole('ROLE_ADMIN')")
+    @CrossOrigin(allowCredentials = "true", origins = SecurityConfig.CORS_ORIGIN)
+    public ResponseEntity<?> createNotes(@RequestBody List<NoteCreateRequestDto> notes,
+        @CookieValue(name = "encKey", defaultValue = "") String encKey,
+        @RequestHeader(name = "X-CSRF-TOKEN", defaultValue = "") String sessionToken) {
+
+        if (notes.isEmpty() || notes.size() > noteBatchMaxSize) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(new String("Batch must contain 1-" + noteBatchMaxSize + " notes"));
+        }
+        if (encKey.isBlank()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new String(MISSING_KEY_MESSAGE));
+        }
+
+        UserDetailsImpl userDetails = (UserDetailsImpl)SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        if (!sessionStore.isValid(userDetails.getId(), sessionToken)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new String("Invalid session token"));
+        }
+
+        NoteBatchResultDto[] results = new NoteBatchResultDto[notes.size()];
+        List<Integer> valid = validateBatch(notes, results, false);
+
+        try {
+            List<NoteBatchResultDto> created = noteService.createNotes(userDetails.getId(),
+                valid.stream().map(i -> toNote(notes.get(i), 0)).toList(), encKey);
+            return ResponseEntity.ok(mergeResults(results, valid, created));
+        }
+        catch (NoteEncryptionException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new String("Note encryption failed!"));
+        }
+    }
+
+    @PutMapping("/batch")
+    @PreAuthorize("hasRole('ROLE_USER') or hasRole('ROLE_ADMIN')")
+    @CrossOrigin(allowCredentials = "true", origins = SecurityConfig.CORS_ORIGIN)
+    public ResponseEntity<?> updateNotes(@RequestBody List<NoteCreateRequestDto> notes,
+        @CookieValue(name = "encKey", defaultValue = "") String encKey,
+        @RequestHeader(name = "X-CSRF-TOKEN", defaultValue = "") String sessionToken) {
+
+        if (notes.isEmpty() || notes.size() > noteBatchMaxSize) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(new String("Batch must contain 1-" + noteBatchMaxSize + " notes"));
+        }
+        if (encKey.isBlank()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new String(MISSING_KEY_MESSAGE));
+        }
+
+        UserDetailsImpl userDetails = (UserDetailsImpl)SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        if (!sessionStore.isValid(userDetails.getId(), sessionToken)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new String("Unauthorized update!"));
+        }
+
+        NoteBatchResultDto[] results = new NoteBatchResultDto[notes.size()];
+        List<Integer> valid = validateBatch(notes, results, true);
+
+        try {
+            List<NoteBatchResultDto> updated = noteService.updateNotes(userDetails.getId(),
+                valid.stream().map(i -> toNote(notes.get(i), notes.get(i).getId())).toList(), encKey);
+            return ResponseEntity.ok(mergeResults(results, valid, updated));
+        }
+        catch (NoteEncryptionException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new String("Note encryption failed!"));
+        }
+    }
+
+    @DeleteMapping("/batch")
+    @PreAuthorize("hasRole('ROLE_USER') or hasRole('ROLE_ADMIN')")
+    @CrossOrigin(allowCredentials = "true", origins = SecurityConfig.CORS_ORIGIN)
+    public ResponseEntity<?> deleteNotes(@RequestBody List<Long> ids,
+        @RequestHeader(name = "X-CSRF-TOKEN", defaultValue = "") String sessionToken) {
+
+        if (ids.isEmpty() || ids.size() > noteBatchMaxSize) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(new String("Batch must contain 1-" + noteBatchMaxSize + " notes"));
+        }
+
+        UserDetailsImpl userDetails = (UserDetailsImpl)SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+        if (!sessionStore.isValid(userDetails.getId(), sessionToken)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new String("Unauthorized delete!"));
+        }
+
+        // Admins can delete any note
+        boolean admin = userDetails.getAuthorities().stream()
+            .anyMatch(item -> item.getAuthority().equals(ERole.ROLE_ADMIN.name()));
+        return ResponseEntity.ok(noteService.deleteNotes(userDetails.getId(), admin, ids));
+    }
+
+    /**
+     * Validates notes of a batch, invalid notes get an error result
+     * @param notes notes in the request
+     * @param results results of the batch, filled for invalid notes
+     * @param update true if notes are updated, ids must then be unique
+     * @return indexes of valid notes
+     */
+    private List<Integer> validateBatch(List<NoteCreateRequestDto> notes, NoteBatchResultDto[] results, boolean update) {
+        List<Integer> valid = new ArrayList<>(notes.size());
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < notes.size(); i++) {
+            NoteCreateRequestDto note = notes.get(i);
+            long id = update ? note.getId() : 0;
+            if (!NoteUtils.isValidHeader(note.getHeader()) || !NoteUtils.isValidContent(note.getContent())) {
+                results[i] = new NoteBatchResultDto(id, HttpStatus.BAD_REQUEST.value(), "Invalid note content!", null);
+            }
+            else if (update && !ids.add(id)) {
+                results[i] = new NoteBatchResultDto(id, HttpStatus.BAD_REQUEST.value(), "Duplicate note id", null);
+            }
+            else {
+                valid.add(i);
+            }
+        }
+        return valid;
+    }
+
+    private List<NoteBatchResultDto> mergeResults(NoteBatchResultDto[] results, List<Integer> indexes, 
+            List<NoteBatchResultDto> processed) {
+        for (int i = 0; i < indexes.size(); i++) {
+            results[indexes.get(i)] = processed.get(i);
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * ETag of a single note. Admins get the note encrypted, so their responses have a separate tag.
+     */
+    private static String noteETag(long id, long modifiedAt, boolean encrypted) {
+        return "note-" + id + "-" + modifiedAt + (encrypted ? "-enc" : "");
+    }
+
+    /**
+     * ETag of a users note listing, the same for all pages and sort orders since the URL differs
+     */
+    private static String listETag(long owner, long listVersion) {
+        return "notes-" + owner + "-" + listVersion;
+    }
+
+    /**
+     * Checks if the If-None-Match header of the request contains the given ETag
+     */
+    private static boolean matchesETag(WebRequest request, String etag) {
+        String[] values = request.getHeaderValues(HttpHeaders.IF_NONE_MATCH);
+        if (values == null) {
+            return false;
+        }
+        String quoted = "\"" + etag + "\"";
+        return Arrays.stream(values)
+            .flatMap(value -> Arrays.stream(value.split(",")))
+            .map(String::trim)
+            .map(tag -> tag.startsWith("W/") ? tag.substring(2) : tag)
+            .anyMatch(tag -> tag.equals(quoted) || tag.equals("*"));
+    }
+
+    private static Note toNote(NoteCreateRequestDto noteData, long id) {
+        Note note = new Note();
+        note.setId(id);
+        note.setHeader(noteData.getHeader().getBytes(StandardCharsets.UTF_8));
+        note.setContent(noteData.getContent().getBytes(StandardCharsets.UTF_8));
+        return note;
+    }
 }
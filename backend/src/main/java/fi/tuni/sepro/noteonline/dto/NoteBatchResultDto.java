@@ -0,0 +1,26 @@
+package fi.tuni.sepro.noteonline.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Result of a single note in a batch request. Results are in the same order as the request.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class NoteBatchResultDto {
+    private long id;
+
+    // HTTP status the note would have received as a single request
+    private int status;
+
+    // Null if the note succeeded
+    private String error;
+
+    // Created or updated note in plain format, null for deletes and failures
+    private NoteResponseDto note;
+}
@@ -0,0 +1,26 @@
+package fi.tuni.sepro.noteonline.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class NoteChangesDto {
+    // Notes created or modified after the cursor
+    private List<NoteDetailsResponseDto> notes;
+
+    // Ids of notes deleted after the cursor
+    private List<Long> deleted;
+
+    // Cursor for the next request, always set
+    private String cursor;
+
+    // True if more changes are available right away
+    private boolean hasMore;
+}
@@ -0,0 +1,25 @@
+package fi.tuni.sepro.noteonline.dto;
+
+import java.util.List;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+public class NoteDetailsPageDto {
+    private List<NoteDetailsResponseDto> notes;
+
+    // Null on the last page
+    private String nextCursor;
+
+    // True if headers were decrypted with the data key of the user
+    private boolean decrypted;
+
+    public NoteDetailsPageDto(List<NoteDetailsResponseDto> notes, String nextCursor) {
+        this.notes = notes;
+        this.nextCursor = nextCursor;
+    }
+}
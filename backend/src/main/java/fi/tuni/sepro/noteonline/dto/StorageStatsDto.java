@@ -0,0 +1,22 @@
+package fi.tuni.sepro.noteonline.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class StorageStatsDto {
+    private long users;
+    private long noteCount;
+    private long storedBytes;
+    private long lastActivityAt;
+
+    // Users with the most stored bytes, largest first
+    private List<UserStorageDto> topUsers;
+}
@@ -0,0 +1,19 @@
+package fi.tuni.sepro.noteonline.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserStorageDto {
+    private long owner;
+    private long noteCount;
+
+    // Size of encrypted headers and contents
+    private long storedBytes;
+    private long lastActivityAt;
+}
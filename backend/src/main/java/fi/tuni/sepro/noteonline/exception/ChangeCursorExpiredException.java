@@ -0,0 +1,11 @@
+package fi.tuni.sepro.noteonline.exception;
+
+/**
+ * Exception thrown when changes are requested with a cursor older than the tombstone retention,
+ * so deletions after the cursor may no longer be known. The client must reload all notes.
+ */
+public class ChangeCursorExpiredException extends Exception {
+    public ChangeCursorExpiredException(String msg) {
+        super(msg);
+    }
+}
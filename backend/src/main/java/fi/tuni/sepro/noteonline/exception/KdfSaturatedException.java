@@ -0,0 +1,10 @@
+package fi.tuni.sepro.noteonline.exception;
+
+/**
+ * Exception thrown when a password can't be hashed because the hashing queue is full
+ */
+public class KdfSaturatedException extends Exception {
+    public KdfSaturatedException(String msg) {
+        super(msg);
+    }
+}
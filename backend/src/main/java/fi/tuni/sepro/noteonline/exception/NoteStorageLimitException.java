@@ -0,0 +1,10 @@
+package fi.tuni.sepro.noteonline.exception;
+
+/**
+ * Exception thrown when the user attempts to post a file, but their notes would exceed the storage limit
+ */
+public class NoteStorageLimitException extends Exception {
+    public NoteStorageLimitException(String msg) {
+        super(msg);
+    }
+}
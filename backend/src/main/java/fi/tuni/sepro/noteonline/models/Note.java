@@ -1,10 +1,17 @@
 package fi.tuni.sepro.noteonline.models;
 
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
-import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -16,21 +23,59 @@ import lombok.NoArgsConstructor;
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-@Table(name = "notes")
+@Table(name = "notes", indexes = {
+    // Keyset pagination of note listings, see NoteRepository
+    @Index(name = "idx_notes_owner_modified", columnList = "owner, modifiedAt, id"),
+    @Index(name = "idx_notes_owner_created", columnList = "owner, createdAt, id"),
+    @Index(name = "idx_notes_modified", columnList = "modifiedAt, id"),
+    @Index(name = "idx_notes_created", columnList = "createdAt, id")
+})
 @EqualsAndHashCode(callSuper = false)
 public class Note {
+
+    // Note encryption formats
+    // V1: file key encrypted with a key derived from the users encryption key, per note salt
+    // V2: file key wrapped with the users data key
+    // V3: header and content sealed with AES-GCM, with the note owner and id as additional data.
+    //     Header column has the sealed header, content column the sealed content blob, see NoteBlob.
+    //     Iv and salt are not used.
+    public static final int FORMAT_V1 = 1;
+    public static final int FORMAT_V2 = 2;
+    public static final int FORMAT_V3 = 3;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    // Ids are allocated in blocks, so batch inserts don't need a sequence call per note
+    @GeneratedValue(generator = "notes_seq")
+    @GenericGenerator(name = "notes_seq", type = NoteIdGenerator.class, parameters = {
+        @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "notes_seq"),
+        @Parameter(name = SequenceStyleGenerator.INCREMENT_PARAM, value = "50")
+    })
     private long id;
 
+    // Id allocated for a new note before it's persisted, see NoteIdGenerator
+    @Transient
+    @EqualsAndHashCode.Exclude
+    private long allocatedId;
+
     private long owner;
     private long createdAt;
     private long modifiedAt;
     
+    // Lengths fit the encrypted note size limits. PostgreSQL stores all of these as bytea, the
+    // lengths only matter for databases with sized binary columns, such as H2 in tests.
+    @Column(length = 1024)
     private byte[] header;
+    @Column(length = 32768)
     private byte[] content;
 
+    @Column(length = 256)
     private byte[] encryptionKey;
+    @Column(length = 64)
     private byte[] iv;
+    @Column(length = 64)
     private byte[] salt;
+
+    // Notes stored before format versioning are V1
+    @ColumnDefault("1")
+    private int formatVersion;
 }
@@ -0,0 +1,20 @@
+package fi.tuni.sepro.noteonline.models;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+
+/**
+ * Sequence generator for note ids. V3 notes are encrypted with their id as additional data, so
+ * new notes get an id allocated before encryption, see NoteRepository#allocateId. Hibernate only
+ * persists notes without an id, so the allocated id is kept in a transient field and used here.
+ */
+public class NoteIdGenerator extends SequenceStyleGenerator {
+
+    @Override
+    public Object generate(SharedSessionContractImplementor session, Object object) {
+        if (object instanceof Note note && note.getAllocatedId() != 0) {
+            return note.getAllocatedId();
+        }
+        return super.generate(session, object);
+    }
+}
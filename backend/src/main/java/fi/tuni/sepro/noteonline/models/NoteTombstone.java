@@ -0,0 +1,34 @@
+package fi.tuni.sepro.noteonline.models;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+/**
+ * Record of a deleted note, so clients syncing changes can remove it. Written in the same
+ * transaction as the delete and removed after the retention period.
+ */
+@Data
+@Entity
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "note_tombstones", indexes = {
+    @Index(name = "idx_note_tombstones_owner_deleted", columnList = "owner, deletedAt"),
+    @Index(name = "idx_note_tombstones_deleted", columnList = "deletedAt")
+})
+@EqualsAndHashCode(callSuper = false)
+public class NoteTombstone {
+    // Id of the deleted note, note ids are never reused
+    @Id
+    private long noteId;
+
+    private long owner;
+    private long deletedAt;
+}
@@ -44,5 +44,9 @@ public class User {
     private int failedLoginCount;
     private long lockedUntil;
 
-    private String sessionToken;
+    // Random key used for wrapping note file keys, wrapped with a key derived from the users encryption key
+    @Column(length = 256)
+    private byte[] dataKey;
+    @Column(length = 64)
+    private byte[] dataKeySalt;
 }
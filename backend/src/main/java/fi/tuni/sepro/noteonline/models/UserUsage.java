@@ -0,0 +1,38 @@
+package fi.tuni.sepro.noteonline.models;
+
+import org.hibernate.annotations.ColumnDefault;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+/**
+ * Storage used by a single user. Updated in the same transaction as the notes of the user.
+ */
+@Data
+@Entity
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "user_usage")
+@EqualsAndHashCode(callSuper = false)
+public class UserUsage {
+    @Id
+    private long owner;
+
+    private long noteCount;
+    private long storedBytes;
+
+    // Incremented whenever a note of the user changes, used as the ETag of note listings
+    @ColumnDefault("0")
+    private long listVersion;
+
+    // Time of the last note change in ms, 0 if unknown
+    @ColumnDefault("0")
+    private long lastActivityAt;
+}
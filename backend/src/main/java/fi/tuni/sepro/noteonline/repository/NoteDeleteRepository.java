@@ -0,0 +1,17 @@
+package fi.tuni.sepro.noteonline.repository;
+
+import java.util.List;
+
+/**
+ * Deletes notes and tells which of them were deleted by the current transaction
+ */
+public interface NoteDeleteRepository {
+
+    /**
+     * Deletes the notes with the given ids. Notes deleted concurrently by another transaction are
+     * not included in the result, so their usage and tombstones are only recorded once.
+     * @param ids ids of the notes to delete
+     * @return ids of the notes this call deleted, in the same order as ids
+     */
+    List<Long> deleteAndReturnIds(List<Long> ids);
+}
@@ -0,0 +1,30 @@
+package fi.tuni.sepro.noteonline.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+class NoteDeleteRepositoryImpl implements NoteDeleteRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    NoteDeleteRepositoryImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public List<Long> deleteAndReturnIds(List<Long> ids) {
+        // One statement per note in a single batch, so the update counts tell which rows were deleted
+        int[] counts = jdbcTemplate.batchUpdate("DELETE FROM notes WHERE id = ?", 
+            ids.stream().map(id -> new Object[] { id }).toList());
+
+        List<Long> deleted = new ArrayList<>(ids.size());
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                deleted.add(ids.get(i));
+            }
+        }
+        return deleted;
+    }
+}
@@ -0,0 +1,18 @@
+package fi.tuni.sepro.noteonline.repository;
+
+/**
+ * Projection of a note without its content. Used for listing notes, so note bodies are never
+ * loaded from the database.
+ */
+public interface NoteHeaderView {
+    long getId();
+    long getOwner();
+    long getCreatedAt();
+    long getModifiedAt();
+
+    byte[] getHeader();
+    byte[] getIv();
+    byte[] getSalt();
+    byte[] getEncryptionKey();
+    int getFormatVersion();
+}
@@ -0,0 +1,14 @@
+package fi.tuni.sepro.noteonline.repository;
+
+/**
+ * Allocates ids for notes that are not persisted yet
+ */
+public interface NoteIdRepository {
+
+    /**
+     * Allocates an id from the note sequence. The id is used when the note is persisted, if it's
+     * set as the allocated id of the note, see NoteIdGenerator.
+     * @return new note id
+     */
+    long allocateId();
+}
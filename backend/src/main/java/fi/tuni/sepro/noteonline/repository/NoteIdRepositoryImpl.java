@@ -0,0 +1,23 @@
+package fi.tuni.sepro.noteonline.repository;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+
+import fi.tuni.sepro.noteonline.models.Note;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+class NoteIdRepositoryImpl implements NoteIdRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public long allocateId() {
+        // Same generator as persisted notes use, so ids come from the same pooled blocks
+        SharedSessionContractImplementor session = entityManager.unwrap(SharedSessionContractImplementor.class);
+        IdentifierGenerator generator = (IdentifierGenerator) session.getFactory().getMappingMetamodel()
+            .getEntityDescriptor(Note.class).getGenerator();
+        return (Long) generator.generate(session, null);
+    }
+}
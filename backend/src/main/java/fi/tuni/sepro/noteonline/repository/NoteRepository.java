@@ -1,13 +1,83 @@
 package fi.tuni.sepro.noteonline.repository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
+import org.hibernate.jpa.HibernateHints;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import fi.tuni.sepro.noteonline.models.Note;
+import jakarta.persistence.QueryHint;
 
 @Repository
-public interface NoteRepository extends JpaRepository<Note, Long> {
+public interface NoteRepository extends JpaRepository<Note, Long>, NoteIdRepository, NoteDeleteRepository {
+
+    // Columns needed for listing notes, content is left out on purpose
+    String HEADER_COLUMNS = "n.id as id, n.owner as owner, n.createdAt as createdAt, n.modifiedAt as modifiedAt, "
+        + "n.header as header, n.iv as iv, n.salt as salt, n.encryptionKey as encryptionKey, "
+        + "n.formatVersion as formatVersion";
+
+    // Rows fetched from the database at a time when streaming
+    String STREAM_FETCH_SIZE = "500";
+
     List<Note> findByOwner(Long ownerId);
+
+    @Query("select n.owner as owner, n.modifiedAt as modifiedAt from Note n where n.id = :id")
+    Optional<NoteVersionView> findVersionById(@Param("id") Long id);
+
+    @Query("select " + HEADER_COLUMNS + " from Note n where n.owner = :owner and n.id in :ids "
+        + "order by n.modifiedAt desc, n.id desc")
+    List<NoteHeaderView> findHeadersByOwnerAndIdIn(@Param("owner") Long ownerId, 
+        @Param("ids") Collection<Long> ids, Pageable page);
+
+    // Keyset pages, newest first. Ties on the timestamp are broken by id, so no note is skipped.
+
+    @Query("select " + HEADER_COLUMNS + " from Note n where n.owner = :owner "
+        + "and (n.modifiedAt < :ts or (n.modifiedAt = :ts and n.id < :id)) order by n.modifiedAt desc, n.id desc")
+    List<NoteHeaderView> findHeadersByOwnerModifiedBefore(@Param("owner") Long ownerId, 
+        @Param("ts") long modifiedAt, @Param("id") long id, Pageable page);
+
+    @Query("select " + HEADER_COLUMNS + " from Note n where n.owner = :owner "
+        + "and (n.createdAt < :ts or (n.createdAt = :ts and n.id < :id)) order by n.createdAt desc, n.id desc")
+    List<NoteHeaderView> findHeadersByOwnerCreatedBefore(@Param("owner") Long ownerId, 
+        @Param("ts") long createdAt, @Param("id") long id, Pageable page);
+
+    @Query("select " + HEADER_COLUMNS + " from Note n "
+        + "where n.modifiedAt < :ts or (n.modifiedAt = :ts and n.id < :id) order by n.modifiedAt desc, n.id desc")
+    List<NoteHeaderView> findHeadersModifiedBefore(@Param("ts") long modifiedAt, @Param("id") long id, Pageable page);
+
+    @Query("select " + HEADER_COLUMNS + " from Note n "
+        + "where n.createdAt < :ts or (n.createdAt = :ts and n.id < :id) order by n.createdAt desc, n.id desc")
+    List<NoteHeaderView> findHeadersCreatedBefore(@Param("ts") long createdAt, @Param("id") long id, Pageable page);
+
+    // Change feed, oldest first. Ties on the timestamp are broken by id, so no note is skipped.
+
+    @Query("select " + HEADER_COLUMNS + " from Note n where n.owner = :owner "
+        + "and (n.modifiedAt > :ts or (n.modifiedAt = :ts and n.id > :id)) order by n.modifiedAt asc, n.id asc")
+    List<NoteHeaderView> findHeadersByOwnerModifiedAfter(@Param("owner") Long ownerId, 
+        @Param("ts") long modifiedAt, @Param("id") long id, Pageable page);
+
+    @Query("select " + HEADER_COLUMNS + " from Note n "
+        + "where n.modifiedAt > :ts or (n.modifiedAt = :ts and n.id > :id) order by n.modifiedAt asc, n.id asc")
+    List<NoteHeaderView> findHeadersModifiedAfter(@Param("ts") long modifiedAt, @Param("id") long id, Pageable page);
+
+    /**
+     * Streams headers of all notes with a forward-only cursor. Must be consumed inside a transaction,
+     * and the stream must be closed. Projections are not managed entities, so the persistence context
+     * does not grow while streaming.
+     */
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE),
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("select " + HEADER_COLUMNS + " from Note n order by n.id")
+    Stream<NoteHeaderView> streamAllHeaders();
 }
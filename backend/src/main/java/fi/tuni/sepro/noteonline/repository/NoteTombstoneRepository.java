@@ -0,0 +1,29 @@
+package fi.tuni.sepro.noteonline.repository;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import fi.tuni.sepro.noteonline.models.NoteTombstone;
+
+@Repository
+public interface NoteTombstoneRepository extends JpaRepository<NoteTombstone, Long> {
+
+    @Query("select t.noteId from NoteTombstone t where t.owner = :owner and t.deletedAt >= :ts")
+    List<Long> findIdsByOwnerDeletedSince(@Param("owner") long owner, @Param("ts") long deletedAt);
+
+    @Query("select t.noteId from NoteTombstone t where t.deletedAt >= :ts")
+    List<Long> findIdsDeletedSince(@Param("ts") long deletedAt);
+
+    /**
+     * Removes tombstones older than the given time
+     * @return number of removed tombstones
+     */
+    @Modifying
+    @Query("delete from NoteTombstone t where t.deletedAt < :ts")
+    int deleteOlderThan(@Param("ts") long deletedAt);
+}
@@ -0,0 +1,9 @@
+package fi.tuni.sepro.noteonline.repository;
+
+/**
+ * Projection of the note fields needed for access checks and ETags, without the encrypted data
+ */
+public interface NoteVersionView {
+    long getOwner();
+    long getModifiedAt();
+}
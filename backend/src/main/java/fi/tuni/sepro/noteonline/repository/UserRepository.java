@@ -1,6 +1,9 @@
 package fi.tuni.sepro.noteonline.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import fi.tuni.sepro.noteonline.models.User;
@@ -8,4 +11,12 @@ import fi.tuni.sepro.noteonline.models.User;
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
     User findUserByEmail(String email);
+
+    /**
+     * Sets the data key for a user, unless the user already has one
+     * @return number of updated users
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("update User u set u.dataKey = :dataKey, u.dataKeySalt = :dataKeySalt where u.Id = :id and u.dataKey is null")
+    int setDataKeyIfAbsent(@Param("id") long id, @Param("dataKey") byte[] dataKey, @Param("dataKeySalt") byte[] dataKeySalt);
 }
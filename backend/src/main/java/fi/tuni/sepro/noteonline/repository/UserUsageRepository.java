@@ -0,0 +1,86 @@
+package fi.tuni.sepro.noteonline.repository;
+
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.hibernate.jpa.HibernateHints;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import fi.tuni.sepro.noteonline.dto.UserStorageDto;
+import fi.tuni.sepro.noteonline.models.UserUsage;
+import jakarta.persistence.QueryHint;
+
+@Repository
+public interface UserUsageRepository extends JpaRepository<UserUsage, Long> {
+
+    // Rows fetched from the database at a time when streaming
+    String STREAM_FETCH_SIZE = "500";
+
+    /**
+     * Adds notes and bytes to the usage of the owner, if the result stays within the given limits
+     * @return number of updated rows, 0 if limits would be exceeded or the owner has no usage row
+     */
+    @Modifying
+    @Query("update UserUsage u set u.noteCount = u.noteCount + :notes, u.storedBytes = u.storedBytes + :bytes, "
+        + "u.listVersion = u.listVersion + 1, u.lastActivityAt = :now "
+        + "where u.owner = :owner and u.noteCount + :notes <= :maxNotes and u.storedBytes + :bytes <= :maxBytes")
+    int reserve(@Param("owner") long owner, @Param("notes") long notes, @Param("bytes") long bytes, 
+        @Param("maxNotes") long maxNotes, @Param("maxBytes") long maxBytes, @Param("now") long now);
+
+    /**
+     * Removes notes and bytes from the usage of the owner
+     * @return number of updated rows, 0 if the owner has no usage row
+     */
+    @Modifying
+    @Query("update UserUsage u set u.noteCount = u.noteCount - :notes, u.storedBytes = u.storedBytes - :bytes, "
+        + "u.listVersion = u.listVersion + 1, u.lastActivityAt = :now where u.owner = :owner")
+    int release(@Param("owner") long owner, @Param("notes") long notes, @Param("bytes") long bytes, @Param("now") long now);
+
+    /**
+     * Increments the list version of the owner, for changes that don't affect usage
+     * @return number of updated rows, 0 if the owner has no usage row
+     */
+    @Modifying
+    @Query("update UserUsage u set u.listVersion = u.listVersion + 1, u.lastActivityAt = :now where u.owner = :owner")
+    int incrementVersion(@Param("owner") long owner, @Param("now") long now);
+
+    @Query("select u.listVersion from UserUsage u where u.owner = :owner")
+    Optional<Long> findListVersion(@Param("owner") long owner);
+
+    @Query("select u.noteCount from UserUsage u where u.owner = :owner")
+    Optional<Long> findNoteCount(@Param("owner") long owner);
+
+    @QueryHints({
+        @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE),
+        @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("select new fi.tuni.sepro.noteonline.dto.UserStorageDto(u.owner, u.noteCount, u.storedBytes, u.lastActivityAt) "
+        + "from UserUsage u")
+    Stream<UserStorageDto> streamAllStorage();
+
+    /**
+     * Creates the usage row of the owner from the notes currently stored. Does nothing if the row exists.
+     */
+    @Modifying
+    @Query(nativeQuery = true, value = "INSERT INTO user_usage (owner, note_count, stored_bytes, last_activity_at) "
+        + "SELECT :owner, count(*), coalesce(sum(octet_length(header) + octet_length(content)), 0), "
+        + "coalesce(max(modified_at), 0) FROM notes WHERE owner = :owner ON CONFLICT DO NOTHING")
+    int initialize(@Param("owner") long owner);
+
+    /**
+     * Creates the usage rows of all owners that have notes but no row yet
+     * @return number of created rows
+     */
+    @Modifying
+    @Query(nativeQuery = true, value = "INSERT INTO user_usage (owner, note_count, stored_bytes, last_activity_at) "
+        + "SELECT owner, count(*), sum(octet_length(header) + octet_length(content)), max(modified_at) "
+        + "FROM notes n WHERE NOT EXISTS (SELECT 1 FROM user_usage u WHERE u.owner = n.owner) "
+        + "GROUP BY owner ON CONFLICT DO NOTHING")
+    int initializeAll();
+}
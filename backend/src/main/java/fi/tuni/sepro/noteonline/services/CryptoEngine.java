@@ -0,0 +1,502 @@
+package fi.tuni.sepro.noteonline.services;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.spec.KeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Encryption operations used by the application. Creating Cipher and SecretKeyFactory instances is
+ * expensive, so they are pooled and reused between calls. Instances are never shared between threads
+ * at the same time.
+ *
+ * The JCE provider is selected with noteonline.app.cryptoProvider, SunJCE or BC.
+ *
+ * Operations are timed in noteonline.crypto. The global registry is used, so the timers also work
+ * when the engine is created outside of Spring, such as in benchmarks.
+ */
+@Service
+public class CryptoEngine {
+
+    // Encryption algorithm used
+    private static final String ENCRYPTION_ALGORITHM = "AES";
+
+    // For valid values, see: https://docs.oracle.com/javase/8/docs/api/javax/crypto/Cipher.html
+    private static final String ENCRYPTION_SETTING = "AES/CBC/PKCS5Padding";
+    private static final int IV_SIZE = 16;
+
+    // Authenticated encryption, the tag is appended to the ciphertext
+    private static final String AEAD_SETTING = "AES/GCM/NoPadding";
+    public static final int AEAD_NONCE_SIZE = 12;
+    public static final int AEAD_TAG_SIZE = 16;
+
+    // Key wrapping (RFC 3394), does not need an IV or padding
+    private static final String KEY_WRAP_SETTING = "AESWrap";
+
+    // Keyed hashes, such as blind search tokens
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    // PBKDF parameters
+    private static final String PBKDF_ALRORITHM = "PBKDF2WithHmacSHA256";
+    private static final int PBKDF_ITERATIONS = 65536;
+    private static final int PBKDF_KEY_LENGTH = 256;
+
+    private final Provider provider;
+    private final SecureRandom random = new SecureRandom();
+
+    private final InstancePool<Cipher> encryptionCiphers;
+    private final InstancePool<Cipher> aeadCiphers;
+    private final InstancePool<Cipher> wrapCiphers;
+    private final InstancePool<SecretKeyFactory> keyFactories;
+    private final InstancePool<Mac> macs;
+
+    private final Timer pbkdfTimer;
+    private final Timer encryptTimer;
+    private final Timer decryptTimer;
+    private final Timer sealTimer;
+    private final Timer openTimer;
+    private final Timer wrapTimer;
+    private final Timer unwrapTimer;
+    private final Timer macTimer;
+
+    CryptoEngine(
+        @Value("${noteonline.app.cryptoProvider}") String providerName,
+        @Value("${noteonline.app.cryptoPoolMaxIdle}") int maxIdle) throws GeneralSecurityException {
+
+        this.provider = resolveProvider(providerName);
+        this.encryptionCiphers = new InstancePool<>(maxIdle, () -> Cipher.getInstance(ENCRYPTION_SETTING, provider));
+        this.aeadCiphers = new InstancePool<>(maxIdle, () -> Cipher.getInstance(AEAD_SETTING, provider));
+        this.wrapCiphers = new InstancePool<>(maxIdle, () -> Cipher.getInstance(KEY_WRAP_SETTING, provider));
+        this.keyFactories = new InstancePool<>(maxIdle, () -> SecretKeyFactory.getInstance(PBKDF_ALRORITHM, provider));
+        this.macs = new InstancePool<>(maxIdle, () -> Mac.getInstance(MAC_ALGORITHM, provider));
+
+        // Fail on startup if the provider does not support the algorithms
+        encryptionCiphers.release(encryptionCiphers.acquire());
+        aeadCiphers.release(aeadCiphers.acquire());
+        wrapCiphers.release(wrapCiphers.acquire());
+        keyFactories.release(keyFactories.acquire());
+        macs.release(macs.acquire());
+
+        this.pbkdfTimer = timer("pbkdf2");
+        this.encryptTimer = timer("encrypt");
+        this.decryptTimer = timer("decrypt");
+        this.sealTimer = timer("seal");
+        this.openTimer = timer("open");
+        this.wrapTimer = timer("wrap");
+        this.unwrapTimer = timer("unwrap");
+        this.macTimer = timer("mac");
+    }
+
+    /**
+     * Generates a random secret key for encryption
+     * @param size The key size in bits
+     * @return Generated secret key
+     */
+    public SecretKey generateKey(int size) {
+        byte[] bytes = randomBytes(size / 8);
+        try {
+            return bytesToKey(bytes);
+        }
+        finally {
+            Arrays.fill(bytes, (byte)0);
+        }
+    }
+
+    /**
+     * Generate a secret key for encryption from a password
+     * @param pass The password as plain text
+     * @param salt A random salt in bytes
+     * @return Generated secret key
+     * @throws GeneralSecurityException
+     */
+    public SecretKey generateKeyFromPassword(String pass, byte[] salt) throws GeneralSecurityException {
+        KeySpec spec = new PBEKeySpec(pass.toCharArray(), salt, PBKDF_ITERATIONS, PBKDF_KEY_LENGTH);
+        long start = System.nanoTime();
+        SecretKeyFactory factory = keyFactories.acquire();
+        try {
+            return new SecretKeySpec(factory.generateSecret(spec).getEncoded(), ENCRYPTION_ALGORITHM);
+        }
+        finally {
+            keyFactories.release(factory);
+            pbkdfTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Generate cryptographically random bytes, used for salts and tokens
+     * @param length The number of bytes
+     * @return The generated bytes
+     */
+    public byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Generate secret key from given bytes
+     * @param bytes key spec in bytes
+     * @return secret key
+     */
+    public SecretKey bytesToKey(byte[] bytes) {
+        return new SecretKeySpec(bytes, 0, bytes.length, ENCRYPTION_ALGORITHM);
+    }
+
+    /**
+     * Generates an initialization vector for encryption
+     * @return the generated IV
+     */
+    public IvParameterSpec generateIv() {
+        return new IvParameterSpec(randomBytes(IV_SIZE));
+    }
+
+    /**
+     * Encrypts the given bytes
+     * @param input The content to encrypt
+     * @param key The key used for encryption
+     * @param iv The initialization vector used for encryption
+     * @return The encrypted content as bytes
+     * @throws GeneralSecurityException
+     */
+    public byte[] encrypt(byte[] input, SecretKey key, IvParameterSpec iv) throws GeneralSecurityException {
+        long start = System.nanoTime();
+        Cipher cipher = encryptionCiphers.acquire();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, iv);
+            return cipher.doFinal(input);
+        }
+        finally {
+            encryptionCiphers.release(cipher);
+            encryptTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Decrypts the given cipher bytes
+     * @param cipherBytes bytes of cipher content
+     * @param key The key used for decryption
+     * @param iv Initialization vector used for decryption
+     * @return The decrypted content
+     * @throws GeneralSecurityException
+     */
+    public byte[] decrypt(byte[] cipherBytes, SecretKey key, IvParameterSpec iv) throws GeneralSecurityException {
+        long start = System.nanoTime();
+        Cipher cipher = encryptionCiphers.acquire();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, iv);
+            return cipher.doFinal(cipherBytes);
+        }
+        finally {
+            encryptionCiphers.release(cipher);
+            decryptTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Encrypts the remaining bytes of input into output, without intermediate arrays
+     * @param input The content to encrypt, consumed by the call
+     * @param output Buffer for the encrypted content, see encryptedSize
+     * @param key The key used for encryption
+     * @param iv The initialization vector used for encryption
+     * @return The number of bytes written to output
+     * @throws GeneralSecurityException
+     */
+    public int encrypt(ByteBuffer input, ByteBuffer output, SecretKey key, IvParameterSpec iv)
+            throws GeneralSecurityException {
+        long start = System.nanoTime();
+        Cipher cipher = encryptionCiphers.acquire();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, iv);
+            return cipher.doFinal(input, output);
+        }
+        finally {
+            encryptionCiphers.release(cipher);
+            encryptTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Decrypts the remaining bytes of input into output, without intermediate arrays
+     * @param input The cipher content, consumed by the call
+     * @param output Buffer for the decrypted content, needs room for input.remaining() bytes
+     * @param key The key used for decryption
+     * @param iv Initialization vector used for decryption
+     * @return The number of bytes written to output
+     * @throws GeneralSecurityException
+     */
+    public int decrypt(ByteBuffer input, ByteBuffer output, SecretKey key, IvParameterSpec iv)
+            throws GeneralSecurityException {
+        long start = System.nanoTime();
+        Cipher cipher = encryptionCiphers.acquire();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, iv);
+            return cipher.doFinal(input, output);
+        }
+        finally {
+            encryptionCiphers.release(cipher);
+            decryptTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Gets the size of encrypted content
+     * @param inputLength length of plain content
+     * @return length after encryption, including padding
+     */
+    public int encryptedSize(int inputLength) {
+        return (inputLength / IV_SIZE + 1) * IV_SIZE;
+    }
+
+    /**
+     * Generates a nonce for authenticated encryption. A nonce must never be used twice with the same key.
+     * @return the generated nonce
+     */
+    public byte[] generateNonce() {
+        return randomBytes(AEAD_NONCE_SIZE);
+    }
+
+    /**
+     * Encrypts and authenticates the given inputs as one message with AES-GCM
+     * @param key The key used for encryption
+     * @param nonce Nonce, see generateNonce
+     * @param aad Additional data that is authenticated but not encrypted
+     * @param output Buffer for the ciphertext, needs room for the inputs and AEAD_TAG_SIZE bytes
+     * @param inputs The content to encrypt, consumed by the call
+     * @return The number of bytes written to output, including the tag
+     * @throws GeneralSecurityException
+     */
+    public int seal(SecretKey key, byte[] nonce, byte[] aad, ByteBuffer output, ByteBuffer... inputs)
+            throws GeneralSecurityException {
+        long start = System.nanoTime();
+        Cipher cipher = aeadCiphers.acquire();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(AEAD_TAG_SIZE * 8, nonce));
+            cipher.updateAAD(aad);
+
+            int written = 0;
+            for (int i = 0; i < inputs.length - 1; i++) {
+                written += cipher.update(inputs[i], output);
+            }
+            return written + cipher.doFinal(inputs.length > 0 ? inputs[inputs.length - 1] : ByteBuffer.allocate(0), output);
+        }
+        finally {
+            aeadCiphers.release(cipher);
+            sealTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Encrypts and authenticates the given bytes with AES-GCM
+     * @param input The content to encrypt
+     * @param key The key used for encryption
+     * @param nonce Nonce, see generateNonce
+     * @param aad Additional data that is authenticated but not encrypted
+     * @return The ciphertext followed by the tag
+     * @throws GeneralSecurityException
+     */
+    public byte[] seal(byte[] input, SecretKey key, byte[] nonce, byte[] aad) throws GeneralSecurityException {
+        ByteBuffer output = ByteBuffer.allocate(input.length + AEAD_TAG_SIZE);
+        seal(key, nonce, aad, output, ByteBuffer.wrap(input));
+        return output.array();
+    }
+
+    /**
+     * Verifies and decrypts content encrypted with seal
+     * @param key The key used for decryption
+     * @param nonce Nonce used for encryption
+     * @param aad Additional data given for encryption
+     * @param input The ciphertext followed by the tag, consumed by the call
+     * @param output Buffer for the decrypted content, needs room for input.remaining() - AEAD_TAG_SIZE bytes
+     * @return The number of bytes written to output
+     * @throws GeneralSecurityException if the content, additional data or key do not match (AEADBadTagException)
+     */
+    public int open(SecretKey key, byte[] nonce, byte[] aad, ByteBuffer input, ByteBuffer output)
+            throws GeneralSecurityException {
+        long start = System.nanoTime();
+        Cipher cipher = aeadCiphers.acquire();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(AEAD_TAG_SIZE * 8, nonce));
+            cipher.updateAAD(aad);
+            return cipher.doFinal(input, output);
+        }
+        finally {
+            aeadCiphers.release(cipher);
+            openTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Verifies and decrypts content encrypted with seal
+     * @param input The ciphertext followed by the tag
+     * @param key The key used for decryption
+     * @param nonce Nonce used for encryption
+     * @param aad Additional data given for encryption
+     * @return The decrypted content
+     * @throws GeneralSecurityException if the content, additional data or key do not match (AEADBadTagException)
+     */
+    public byte[] open(byte[] input, SecretKey key, byte[] nonce, byte[] aad) throws GeneralSecurityException {
+        if (input.length < AEAD_TAG_SIZE) {
+            throw new AEADBadTagException("Ciphertext is shorter than the tag");
+        }
+        ByteBuffer output = ByteBuffer.allocate(input.length - AEAD_TAG_SIZE);
+        open(key, nonce, aad, ByteBuffer.wrap(input), output);
+        return output.array();
+    }
+
+    /**
+     * Wraps a secret key with another key
+     * @param key The key to wrap
+     * @param wrappingKey The key used for wrapping
+     * @return The wrapped key as bytes
+     * @throws GeneralSecurityException
+     */
+    public byte[] wrapKey(SecretKey key, SecretKey wrappingKey) throws GeneralSecurityException {
+        long start = System.nanoTime();
+        Cipher cipher = wrapCiphers.acquire();
+        try {
+            cipher.init(Cipher.WRAP_MODE, wrappingKey);
+            return cipher.wrap(key);
+        }
+        finally {
+            wrapCiphers.release(cipher);
+            wrapTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Unwraps a key wrapped with wrapKey
+     * @param wrappedKey The wrapped key as bytes
+     * @param wrappingKey The key used for wrapping
+     * @return The unwrapped secret key
+     * @throws GeneralSecurityException if the wrapping key is wrong or the wrapped key has been modified
+     */
+    public SecretKey unwrapKey(byte[] wrappedKey, SecretKey wrappingKey) throws GeneralSecurityException {
+        long start = System.nanoTime();
+        Cipher cipher = wrapCiphers.acquire();
+        try {
+            cipher.init(Cipher.UNWRAP_MODE, wrappingKey);
+            return (SecretKey)cipher.unwrap(wrappedKey, ENCRYPTION_ALGORITHM, Cipher.SECRET_KEY);
+        }
+        finally {
+            wrapCiphers.release(cipher);
+            unwrapTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Calculates HMAC-SHA256 of each input with the same key
+     * @param key The MAC key, any secret key with a raw encoding
+     * @param inputs The inputs
+     * @return MAC of each input, in the same order as inputs
+     * @throws GeneralSecurityException
+     */
+    public List<byte[]> mac(SecretKey key, List<byte[]> inputs) throws GeneralSecurityException {
+        long start = System.nanoTime();
+        Mac mac = macs.acquire();
+        try {
+            mac.init(new SecretKeySpec(key.getEncoded(), MAC_ALGORITHM));
+            List<byte[]> results = new ArrayList<>(inputs.size());
+            for (byte[] input : inputs) {
+                results.add(mac.doFinal(input));
+            }
+            return results;
+        }
+        finally {
+            macs.release(mac);
+            macTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Gets the name of the provider in use
+     * @return provider name
+     */
+    public String getProviderName() {
+        return provider.getName();
+    }
+
+    private Timer timer(String operation) {
+        return Timer.builder("noteonline.crypto")
+            .tag("operation", operation)
+            .tag("provider", provider.getName())
+            .description("Encryption operations")
+            .register(Metrics.globalRegistry);
+    }
+
+    private static Provider resolveProvider(String name) {
+        if (BouncyCastleProvider.PROVIDER_NAME.equals(name) && Security.getProvider(name) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+
+        Provider provider = Security.getProvider(name);
+        if (provider == null) {
+            throw new IllegalArgumentException("Unknown crypto provider: " + name);
+        }
+        return provider;
+    }
+
+    @FunctionalInterface
+    private interface InstanceFactory<T> {
+        T create() throws GeneralSecurityException;
+    }
+
+    /**
+     * Pool of reusable instances. Instances are created on demand and at most maxIdle are kept
+     * for reuse. Works the same for platform and virtual threads, unlike a ThreadLocal.
+     */
+    private static class InstancePool<T> {
+        private final Queue<T> idle = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger idleCount = new AtomicInteger();
+        private final int maxIdle;
+        private final InstanceFactory<T> factory;
+
+        InstancePool(int maxIdle, InstanceFactory<T> factory) {
+            this.maxIdle = maxIdle;
+            this.factory = factory;
+        }
+
+        T acquire() throws GeneralSecurityException {
+            T instance = idle.poll();
+            if (instance != null) {
+                idleCount.decrementAndGet();
+                return instance;
+            }
+            return factory.create();
+        }
+
+        void release(T instance) {
+            if (idleCount.incrementAndGet() <= maxIdle) {
+                idle.offer(instance);
+            }
+            else {
+                idleCount.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package fi.tuni.sepro.noteonline.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Bounded thread pool for CPU heavy crypto work, kept separate from the request threads.
+ * Work of a single request is split into at most cryptoRequestParallelism chunks, so one large
+ * request cannot occupy the whole pool. When the pool is saturated, chunks run on the calling thread.
+ */
+@Component
+public class CryptoWorkerPool {
+
+    private final ThreadPoolExecutor executor;
+    private final int requestParallelism;
+    private final int minChunkSize;
+    private final DistributionSummary parallelismSummary;
+
+    CryptoWorkerPool(
+        @Value("${noteonline.app.cryptoPoolSize}") int poolSize,
+        @Value("${noteonline.app.cryptoQueueCapacity}") int queueCapacity,
+        @Value("${noteonline.app.cryptoRequestParallelism}") int requestParallelism,
+        @Value("${noteonline.app.cryptoMinChunkSize}") int minChunkSize,
+        MeterRegistry meterRegistry) {
+
+        // Pool size 0 means one thread per processor
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            runnable -> {
+                Thread thread = new Thread(runnable, "crypto-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+        this.requestParallelism = Math.max(1, requestParallelism);
+        this.minChunkSize = Math.max(1, minChunkSize);
+
+        ExecutorServiceMetrics.monitor(meterRegistry, executor, "crypto");
+        this.parallelismSummary = DistributionSummary.builder("noteonline.crypto.parallelism")
+            .description("Number of threads that processed a single request")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Applies the given function to all items, in parallel if the list is large enough.
+     * The function should handle its own errors, an exception fails the whole call.
+     * @param items items to process
+     * @param mapper function to apply
+     * @return results, in the same order as items
+     */
+    public <T, R> List<R> map(List<T> items, Function<T, R> mapper) {
+        int chunkCount = Math.min(requestParallelism, (items.size() + minChunkSize - 1) / minChunkSize);
+        if (chunkCount <= 1) {
+            parallelismSummary.record(1);
+            return items.stream().map(mapper).toList();
+        }
+
+        @SuppressWarnings("unchecked")
+        R[] results = (R[])new Object[items.size()];
+        Set<Long> threads = ConcurrentHashMap.newKeySet();
+        int chunkSize = (items.size() + chunkCount - 1) / chunkCount;
+
+        List<Future<?>> futures = new ArrayList<>();
+        List<Runnable> callerChunks = new ArrayList<>();
+        for (int start = 0; start < items.size(); start += chunkSize) {
+            int from = start;
+            int to = Math.min(items.size(), start + chunkSize);
+            Runnable chunk = () -> {
+                threads.add(Thread.currentThread().threadId());
+                for (int i = from; i < to; i++) {
+                    results[i] = mapper.apply(items.get(i));
+                }
+            };
+
+            // First chunk is always processed by the caller, which would otherwise just wait
+            if (from == 0) {
+                callerChunks.add(chunk);
+                continue;
+            }
+
+            try {
+                futures.add(executor.submit(chunk));
+            }
+            catch (RejectedExecutionException e) {
+                callerChunks.add(chunk);
+            }
+        }
+
+        callerChunks.forEach(Runnable::run);
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for crypto work", e);
+            }
+            catch (ExecutionException e) {
+                throw new IllegalStateException("Crypto work failed", e.getCause());
+            }
+        }
+
+        parallelismSummary.record(threads.size());
+        return Arrays.asList(results);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,102 @@
+package fi.tuni.sepro.noteonline.services;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+
+import javax.crypto.SecretKey;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import fi.tuni.sepro.noteonline.models.User;
+import fi.tuni.sepro.noteonline.repository.UserRepository;
+
+/**
+ * Manages user data keys. Each user has one random data key, which wraps the file keys of their notes.
+ * The data key itself is stored wrapped with a key derived from the users encryption key, so deriving
+ * a key is only needed once per session instead of once per note.
+ */
+@Service
+public class DataKeyService {
+
+    private static final int DATA_KEY_SIZE = 256;
+    private static final int DATA_KEY_SALT_LENGTH = 16;
+
+    private final UserRepository userRepository;
+    private final KeyEncryptionKeyCache keyCache;
+    private final CryptoEngine cryptoEngine;
+
+    DataKeyService(UserRepository userRepository, KeyEncryptionKeyCache keyCache, CryptoEngine cryptoEngine) {
+        this.userRepository = userRepository;
+        this.keyCache = keyCache;
+        this.cryptoEngine = cryptoEngine;
+    }
+
+    /**
+     * Generates a new data key for the given user. Used for new accounts, user is not saved.
+     * @param user user to assign the key to
+     * @param encKey users encryption key
+     * @throws GeneralSecurityException key generation fails
+     */
+    public void assignNewDataKey(User user, String encKey) throws GeneralSecurityException {
+        byte[] salt = cryptoEngine.randomBytes(DATA_KEY_SALT_LENGTH);
+        user.setDataKey(wrapNewDataKey(encKey, salt));
+        user.setDataKeySalt(salt);
+    }
+
+    /**
+     * Gets the data key of the given user
+     * @param userId user id
+     * @param encKey users encryption key
+     * @return unwrapped data key, or null if the user has no data key yet
+     * @throws GeneralSecurityException encryption key does not match the data key
+     */
+    public SecretKey getDataKey(long userId, String encKey) throws GeneralSecurityException {
+        User user = userRepository.findById(userId)
+            .orElseThrow(() -> new IllegalArgumentException("User was not found!"));
+
+        if (user.getDataKey() == null) {
+            return null;
+        }
+
+        return unwrapDataKey(user, encKey);
+    }
+
+    /**
+     * Gets the data key of the given user. Accounts created before data keys get one on first use.
+     * @param userId user id
+     * @param encKey users encryption key
+     * @return unwrapped data key
+     * @throws GeneralSecurityException encryption key is blank or does not match the data key
+     */
+    @Transactional
+    public SecretKey getOrCreateDataKey(long userId, String encKey) throws GeneralSecurityException {
+        // A key created without the cookie could never be unwrapped with the real encryption key
+        if (encKey == null || encKey.isBlank()) {
+            throw new InvalidKeyException("Encryption key is required");
+        }
+
+        SecretKey dataKey = getDataKey(userId, encKey);
+        if (dataKey != null) {
+            return dataKey;
+        }
+
+        // Only set the key if no concurrent request did it first, otherwise notes could be
+        // wrapped with a key that is overwritten
+        byte[] salt = cryptoEngine.randomBytes(DATA_KEY_SALT_LENGTH);
+        userRepository.setDataKeyIfAbsent(userId, wrapNewDataKey(encKey, salt), salt);
+
+        return getDataKey(userId, encKey);
+    }
+
+    private byte[] wrapNewDataKey(String encKey, byte[] salt) throws GeneralSecurityException {
+        SecretKey dataKey = cryptoEngine.generateKey(DATA_KEY_SIZE);
+        SecretKey keyEncryptionKey = keyCache.getKey(encKey, salt);
+        return cryptoEngine.wrapKey(dataKey, keyEncryptionKey);
+    }
+
+    private SecretKey unwrapDataKey(User user, String encKey) throws GeneralSecurityException {
+        SecretKey keyEncryptionKey = keyCache.getKey(encKey, user.getDataKeySalt());
+        return cryptoEngine.unwrapKey(user.getDataKey(), keyEncryptionKey);
+    }
+}
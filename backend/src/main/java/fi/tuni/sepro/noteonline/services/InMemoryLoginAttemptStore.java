@@ -0,0 +1,149 @@
+package fi.tuni.sepro.noteonline.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import fi.tuni.sepro.noteonline.models.User;
+import fi.tuni.sepro.noteonline.repository.UserRepository;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Login attempt store that keeps values in memory and writes changed values to the users table
+ * in batches. Values are loaded from the users table on first use.
+ */
+@Service
+@ConditionalOnProperty(name = "noteonline.app.loginAttemptStore", havingValue = "memory", matchIfMissing = true)
+public class InMemoryLoginAttemptStore implements LoginAttemptStore {
+
+    private final UserRepository userRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final PrincipalCache principalCache;
+
+    @Value("${noteonline.app.loginAttemptFlushBatchSize}")
+    private int batchSize;
+
+    // Updates are atomic per email, ConcurrentHashMap locks only the bin of the updated entry
+    private final ConcurrentHashMap<String, LoginAttempts> attempts = new ConcurrentHashMap<>();
+
+    // Emails whose value has changed since the last flush
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+
+    InMemoryLoginAttemptStore(UserRepository userRepository, JdbcTemplate jdbcTemplate, PrincipalCache principalCache) {
+        this.userRepository = userRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.principalCache = principalCache;
+    }
+
+    @Override
+    public LoginAttempts get(String email) {
+        LoginAttempts current = attempts.get(email);
+        if (current != null) {
+            return current;
+        }
+
+        // Loaded outside of the map, so other emails are not blocked by the query
+        User user = userRepository.findUserByEmail(email);
+        if (user == null) {
+            return null;
+        }
+        return get(user);
+    }
+
+    @Override
+    public LoginAttempts get(User user) {
+        LoginAttempts loaded = new LoginAttempts(user.getFailedLoginCount(), user.getLockedUntil());
+        LoginAttempts previous = attempts.putIfAbsent(user.getEmail(), loaded);
+        return previous != null ? previous : loaded;
+    }
+
+    @Override
+    public LoginAttempts update(String email, UnaryOperator<LoginAttempts> updater) {
+        while (true) {
+            if (get(email) == null) {
+                return null;
+            }
+
+            LoginAttempts updated = attempts.computeIfPresent(email, (key, current) -> {
+                LoginAttempts next = updater.apply(current);
+                if (!next.equals(current)) {
+                    dirty.add(key);
+                }
+                // Cached user is dropped when the account is locked or unlocked
+                if (next.getLockedUntil() != current.getLockedUntil()) {
+                    principalCache.invalidate(key);
+                }
+                return next;
+            });
+
+            // Null if the value was evicted after get, it's loaded again
+            if (updated != null) {
+                return updated;
+            }
+        }
+    }
+
+    /**
+     * Writes changed values to the users table, and removes unlocked values from memory. If a
+     * write fails, its emails stay dirty and are written on the next flush.
+     */
+    @Override
+    @Scheduled(fixedDelayString = "${noteonline.app.loginAttemptFlushIntervalMs}")
+    public void flush() {
+        List<Object[]> batch = new ArrayList<>();
+        List<String> emails = new ArrayList<>();
+        for (String email : dirty) {
+            // Removed before reading, so an update during the flush is written on the next flush
+            dirty.remove(email);
+            LoginAttempts value = attempts.get(email);
+            if (value != null) {
+                batch.add(new Object[] { value.getFailedCount(), value.getLockedUntil(), email });
+                emails.add(email);
+            }
+
+            if (batch.size() >= batchSize) {
+                writeBatch(batch, emails);
+                batch.clear();
+                emails.clear();
+            }
+        }
+        writeBatch(batch, emails);
+
+        // Values of unlocked accounts are in the database already, locked ones are kept so
+        // repeated attempts on them don't need to query the database
+        long now = System.currentTimeMillis();
+        attempts.forEach((email, value) -> {
+            if (!value.isLocked(now)) {
+                attempts.computeIfPresent(email, (key, current) ->
+                    dirty.contains(key) || current.isLocked(now) ? current : null);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    private void writeBatch(List<Object[]> batch, List<String> emails) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.batchUpdate("UPDATE users SET failed_login_count = ?, locked_until = ? WHERE email = ?", batch);
+        }
+        catch (RuntimeException e) {
+            // Dirty values are not evicted, so the counts are kept in memory until they are written
+            dirty.addAll(emails);
+            throw e;
+        }
+    }
+}
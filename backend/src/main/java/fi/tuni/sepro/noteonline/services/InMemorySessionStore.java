@@ -0,0 +1,46 @@
+package fi.tuni.sepro.noteonline.services;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Session store that keeps sessions in memory. Sessions are lost when the application restarts,
+ * after which users get a new session on their next page load.
+ */
+@Service
+@ConditionalOnProperty(name = "noteonline.app.sessionStore", havingValue = "memory", matchIfMissing = true)
+public class InMemorySessionStore implements SessionStore {
+
+    private final ConcurrentHashMap<Long, Session> sessions = new ConcurrentHashMap<>();
+
+    @Override
+    public void put(long userId, String token, long expiresAt) {
+        sessions.put(userId, new Session(token, expiresAt));
+    }
+
+    @Override
+    public Session get(long userId) {
+        Session session = sessions.get(userId);
+        if (session == null || session.getExpiresAt() <= System.currentTimeMillis()) {
+            return null;
+        }
+        return session;
+    }
+
+    @Override
+    public void remove(long userId) {
+        sessions.remove(userId);
+    }
+
+    /**
+     * Removes expired sessions
+     */
+    @Scheduled(fixedDelayString = "${noteonline.app.sessionPurgeIntervalMs}")
+    public void purgeExpired() {
+        long now = System.currentTimeMillis();
+        sessions.values().removeIf(session -> session.getExpiresAt() <= now);
+    }
+}
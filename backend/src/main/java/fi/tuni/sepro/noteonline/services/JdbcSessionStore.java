@@ -0,0 +1,66 @@
+package fi.tuni.sepro.noteonline.services;
+
+import java.util.List;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Session store backed by the user_sessions table (see schema.sql), so sessions are shared between
+ * application instances and survive restarts. Sessions are kept out of the users table, so
+ * refreshing a session does not update user rows.
+ */
+@Service
+@ConditionalOnProperty(name = "noteonline.app.sessionStore", havingValue = "jdbc")
+public class JdbcSessionStore implements SessionStore {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    JdbcSessionStore(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void put(long userId, String token, long expiresAt) {
+        // Update first, the row exists for every user who has logged in before
+        int updated = jdbcTemplate.update(
+            "UPDATE user_sessions SET token = ?, expires_at = ? WHERE user_id = ?", token, expiresAt, userId);
+        if (updated > 0) {
+            return;
+        }
+
+        int inserted = jdbcTemplate.update(
+            "INSERT INTO user_sessions (user_id, token, expires_at) VALUES (?, ?, ?) ON CONFLICT DO NOTHING", 
+            userId, token, expiresAt);
+
+        // Another request created the row in between
+        if (inserted == 0) {
+            jdbcTemplate.update(
+                "UPDATE user_sessions SET token = ?, expires_at = ? WHERE user_id = ?", token, expiresAt, userId);
+        }
+    }
+
+    @Override
+    public Session get(long userId) {
+        List<Session> sessions = jdbcTemplate.query(
+            "SELECT token, expires_at FROM user_sessions WHERE user_id = ? AND expires_at > ?",
+            (row, rowNum) -> new Session(row.getString("token"), row.getLong("expires_at")),
+            userId, System.currentTimeMillis());
+        return sessions.isEmpty() ? null : sessions.get(0);
+    }
+
+    @Override
+    public void remove(long userId) {
+        jdbcTemplate.update("DELETE FROM user_sessions WHERE user_id = ?", userId);
+    }
+
+    /**
+     * Removes expired sessions
+     */
+    @Scheduled(fixedDelayString = "${noteonline.app.sessionPurgeIntervalMs}")
+    public void purgeExpired() {
+        jdbcTemplate.update("DELETE FROM user_sessions WHERE expires_at <= ?", System.currentTimeMillis());
+    }
+}
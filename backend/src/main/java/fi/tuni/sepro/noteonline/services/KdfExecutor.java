@@ -0,0 +1,144 @@
+package fi.tuni.sepro.noteonline.services;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import fi.tuni.sepro.noteonline.config.CustomPasswordEncoder;
+import fi.tuni.sepro.noteonline.exception.KdfSaturatedException;
+import fi.tuni.sepro.noteonline.utils.LoginUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Runs password hashing (Argon2 and scrypt) on a dedicated thread pool, so a burst of logins
+ * can't use all request threads or memory. The number of threads is the number of hashes that fit
+ * in the memory budget. When the queue is full, hashing is rejected instead of queued.
+ */
+@Component
+public class KdfExecutor {
+
+    // Memory needed by a single login or registration. Argon2 and scrypt are run one after another,
+    // both are counted since the memory of the first one may not be collected yet.
+    public static final long TASK_MEMORY_BYTES = LoginUtils.ARGON2_MEMORY_BYTES + CustomPasswordEncoder.MEMORY_BYTES;
+
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMs;
+    private final Timer waitTimer;
+    private final Counter rejections;
+
+    KdfExecutor(
+        @Value("${noteonline.app.kdfMemoryBudgetMb}") long memoryBudgetMb,
+        @Value("${noteonline.app.kdfQueueCapacity}") int queueCapacity,
+        @Value("${noteonline.app.kdfTimeoutMs}") long timeoutMs,
+        MeterRegistry meterRegistry) {
+
+        int threads = (int)Math.max(1, memoryBudgetMb * 1024 * 1024 / TASK_MEMORY_BYTES);
+        AtomicInteger threadCount = new AtomicInteger();
+
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+            runnable -> {
+                Thread thread = new Thread(runnable, "kdf-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+        this.timeoutMs = timeoutMs;
+
+        ExecutorServiceMetrics.monitor(meterRegistry, executor, "kdf");
+        this.waitTimer = Timer.builder("noteonline.kdf.wait")
+            .description("Time password hashing waited in the queue")
+            .register(meterRegistry);
+        this.rejections = Counter.builder("noteonline.kdf.rejected")
+            .description("Password hashing rejected because the queue was full or hashing timed out")
+            .register(meterRegistry);
+        Gauge.builder("noteonline.kdf.queue.depth", executor, pool -> pool.getQueue().size())
+            .description("Password hashing tasks waiting for a thread")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Runs the given task on the hashing pool and waits for the result. Runtime exceptions thrown by
+     * the task, such as AuthenticationException, are rethrown as is.
+     * @param task task doing the hashing
+     * @return result of the task
+     * @throws KdfSaturatedException queue is full, or the task did not complete in time
+     */
+    public <T> T run(Callable<T> task) throws KdfSaturatedException {
+        long submittedAt = System.nanoTime();
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                waitTimer.record(System.nanoTime() - submittedAt, TimeUnit.NANOSECONDS);
+                return task.call();
+            });
+        }
+        catch (RejectedExecutionException e) {
+            rejections.increment();
+            throw new KdfSaturatedException("Password hashing queue is full");
+        }
+
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            // Queued tasks are skipped, running hashes can't be interrupted
+            future.cancel(true);
+            rejections.increment();
+            throw new KdfSaturatedException("Password hashing timed out");
+        }
+        catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for password hashing", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Password hashing failed", e.getCause());
+        }
+    }
+
+    /**
+     * Checks if new hashing tasks would be rejected
+     * @return true, if the queue is full
+     */
+    public boolean isSaturated() {
+        return executor.getQueue().remainingCapacity() == 0;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getThreadCount() {
+        return executor.getMaximumPoolSize();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
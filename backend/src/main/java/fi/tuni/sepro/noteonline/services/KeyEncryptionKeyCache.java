@@ -0,0 +1,156 @@
+package fi.tuni.sepro.noteonline.services;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import javax.crypto.SecretKey;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Cache for key encryption keys derived from the users encryption cookie.
+ * Deriving a key with PBKDF2 is expensive, so derived keys are kept in memory for as long as the
+ * encryption cookie they were derived from is valid.
+ *
+ * Entries are identified by a hash of the cookie, so the cookie itself is never stored. Key material
+ * is stored as raw bytes, which are wiped when the entry is evicted.
+ */
+@Service
+public class KeyEncryptionKeyCache {
+
+    @Value("${noteonline.app.keyCacheMaxEntries}")
+    private int maxEntries;
+
+    @Value("${noteonline.app.keyCacheTtlMs}")
+    private long ttlMs;
+
+    // Access ordered, so the first entry is always the least recently used one
+    private final LinkedHashMap<String, CachedKey> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final CryptoEngine cryptoEngine;
+
+    KeyEncryptionKeyCache(CryptoEngine cryptoEngine) {
+        this.cryptoEngine = cryptoEngine;
+    }
+
+    /**
+     * Gets the key encryption key for the given encryption cookie and salt. The key is derived
+     * only if it's not already cached.
+     * @param encKey encryption key from the users cookie
+     * @param salt salt the key was derived with
+     * @return key encryption key
+     * @throws GeneralSecurityException
+     */
+    public SecretKey getKey(String encKey, byte[] salt) throws GeneralSecurityException {
+        String sessionId = sessionId(encKey);
+        String cacheKey = sessionId + ":" + Base64.getEncoder().encodeToString(salt);
+        long now = System.currentTimeMillis();
+
+        synchronized (entries) {
+            CachedKey cached = entries.get(cacheKey);
+            if (cached != null) {
+                if (cached.expiresAt > now) {
+                    cached.expiresAt = now + ttlMs;
+                    return cryptoEngine.bytesToKey(cached.key);
+                }
+                entries.remove(cacheKey);
+                cached.wipe();
+            }
+        }
+
+        // Derive outside the lock, so other sessions are not blocked by the derivation
+        SecretKey key = cryptoEngine.generateKeyFromPassword(encKey, salt);
+
+        synchronized (entries) {
+            CachedKey previous = entries.put(cacheKey, new CachedKey(sessionId, key.getEncoded(), now + ttlMs));
+            if (previous != null) {
+                previous.wipe();
+            }
+            trimToSize();
+        }
+
+        return key;
+    }
+
+    /**
+     * Removes all keys derived from the given encryption cookie. Called when the user logs out.
+     * @param encKey encryption key from the users cookie
+     */
+    public void evictSession(String encKey) {
+        String sessionId = sessionId(encKey);
+        synchronized (entries) {
+            removeIf(entry -> entry.sessionId.equals(sessionId));
+        }
+    }
+
+    /**
+     * Removes keys whose encryption cookie has expired
+     */
+    @Scheduled(fixedDelayString = "${noteonline.app.keyCachePurgeIntervalMs}")
+    public void purgeExpired() {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            removeIf(entry -> entry.expiresAt <= now);
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<CachedKey> iterator = entries.values().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            CachedKey eldest = iterator.next();
+            iterator.remove();
+            eldest.wipe();
+        }
+    }
+
+    private void removeIf(Predicate<CachedKey> predicate) {
+        Iterator<Map.Entry<String, CachedKey>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            CachedKey entry = iterator.next().getValue();
+            if (predicate.test(entry)) {
+                iterator.remove();
+                entry.wipe();
+            }
+        }
+    }
+
+    /**
+     * Creates an identifier for the session the given encryption cookie belongs to
+     * @param encKey encryption key from the users cookie
+     * @return Base64 encoded SHA-256 hash of the key
+     */
+    private static String sessionId(String encKey) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(encKey.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class CachedKey {
+        private final String sessionId;
+        private final byte[] key;
+        private long expiresAt;
+
+        CachedKey(String sessionId, byte[] key, long expiresAt) {
+            this.sessionId = sessionId;
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+
+        void wipe() {
+            Arrays.fill(key, (byte)0);
+        }
+    }
+}
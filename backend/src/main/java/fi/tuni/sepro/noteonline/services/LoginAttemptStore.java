@@ -0,0 +1,83 @@
+package fi.tuni.sepro.noteonline.services;
+
+import java.util.function.UnaryOperator;
+
+import fi.tuni.sepro.noteonline.models.User;
+
+/**
+ * Tracks failed logins and account locks. Updates are kept by the store and written to the users
+ * table later, so failed logins don't cause a database write each.
+ *
+ * Implementation is selected with noteonline.app.loginAttemptStore, see InMemoryLoginAttemptStore.
+ * Multiple application instances need a shared implementation.
+ */
+public interface LoginAttemptStore {
+
+    /**
+     * Gets the login attempts of the user
+     * @param email user email
+     * @return login attempts, or null if no user has the given email
+     */
+    LoginAttempts get(String email);
+
+    /**
+     * Gets the login attempts of the given user, using values of the given user row if the store
+     * has no value yet. Avoids loading the user again when the caller has it already.
+     * @param user user loaded from the database
+     * @return login attempts
+     */
+    LoginAttempts get(User user);
+
+    /**
+     * Atomically updates the login attempts of the user. The user is removed from PrincipalCache
+     * when the lock changes.
+     * @param email user email
+     * @param updater creates the new value from the current value, may be called more than once
+     * @return the new value, or null if no user has the given email
+     */
+    LoginAttempts update(String email, UnaryOperator<LoginAttempts> updater);
+
+    /**
+     * Writes changed values to the database
+     */
+    void flush();
+
+    public static class LoginAttempts {
+        public static final LoginAttempts NONE = new LoginAttempts(0, 0);
+
+        private final int failedCount;
+        private final long lockedUntil;
+
+        public LoginAttempts(int failedCount, long lockedUntil) {
+            this.failedCount = failedCount;
+            this.lockedUntil = lockedUntil;
+        }
+
+        public int getFailedCount() {
+            return failedCount;
+        }
+
+        public long getLockedUntil() {
+            return lockedUntil;
+        }
+
+        public boolean isLocked(long now) {
+            return lockedUntil > now;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+            LoginAttempts other = (LoginAttempts) o;
+            return failedCount == other.failedCount && lockedUntil == other.lockedUntil;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(lockedUntil) * 31 + failedCount;
+        }
+    }
+}
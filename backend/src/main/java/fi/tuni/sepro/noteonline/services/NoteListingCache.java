@@ -0,0 +1,291 @@
+package fi.tuni.sepro.noteonline.services;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import javax.crypto.SecretKey;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fi.tuni.sepro.noteonline.dto.NoteDetailsPageDto;
+import fi.tuni.sepro.noteonline.utils.NoteCursor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Cache for decrypted note listing pages, so navigating back to the note list does not decrypt
+ * every header again. Pages are stored sealed with a key derived from the users encryption cookie,
+ * which is not stored, so cached headers can only be read by requests of the same session.
+ *
+ * Each page is stored with the list version it was read at. Pages are removed when notes of the
+ * user change, and a page with an older version than the current one is never returned, so
+ * changes committed by other requests or instances are seen too.
+ *
+ * Pages are grouped by owner, so all pages of a user are removed at once when their notes change.
+ * When the cache is full, pages of the least recently used owner are removed first.
+ */
+@Service
+public class NoteListingCache {
+
+    private static final byte[] SESSION_KEY_LABEL = "noteonline-listing-cache".getBytes(StandardCharsets.UTF_8);
+
+    private final int maxEntries;
+    private final long ttlMs;
+
+    // Pages by owner and cache key. Both levels are access ordered, so the first owner is always
+    // the least recently used one, and the first page of an owner its least recently used page.
+    private final LinkedHashMap<Long, LinkedHashMap<String, CachedPage>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private int size;
+
+    private final CryptoEngine cryptoEngine;
+    private final ObjectMapper objectMapper;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    NoteListingCache(
+        @Value("${noteonline.app.listingCacheMaxEntries}") int maxEntries,
+        @Value("${noteonline.app.listingCacheTtlMs}") long ttlMs,
+        CryptoEngine cryptoEngine, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMs;
+        this.cryptoEngine = cryptoEngine;
+        this.objectMapper = objectMapper;
+        this.hits = Counter.builder("noteonline.listing.cache.requests").tag("result", "hit")
+            .description("Decrypted note listing lookups").register(meterRegistry);
+        this.misses = Counter.builder("noteonline.listing.cache.requests").tag("result", "miss")
+            .description("Decrypted note listing lookups").register(meterRegistry);
+        this.evictions = Counter.builder("noteonline.listing.cache.evictions")
+            .description("Listing pages removed from the cache").register(meterRegistry);
+        Gauge.builder("noteonline.listing.cache.size", this, cache -> cache.size())
+            .description("Number of cached listing pages").register(meterRegistry);
+    }
+
+    /**
+     * Gets a cached listing page
+     * @param owner note owner
+     * @param encKey encryption key from the users cookie
+     * @param cursor position of the page
+     * @param pageSize number of notes on the page
+     * @param listVersion current list version of the owner
+     * @return the page, or null if it's not cached for this session and version
+     */
+    public NoteDetailsPageDto get(long owner, String encKey, NoteCursor cursor, int pageSize, long listVersion) {
+        String sessionId = sessionId(encKey);
+        String cacheKey = cacheKey(sessionId, owner, cursor, pageSize);
+        long now = System.currentTimeMillis();
+
+        CachedPage cached = null;
+        synchronized (entries) {
+            Map<String, CachedPage> pages = entries.get(owner);
+            if (pages != null) {
+                cached = pages.get(cacheKey);
+            }
+            if (cached != null && (cached.expiresAt <= now || cached.listVersion != listVersion)) {
+                removePage(owner, pages, cacheKey);
+                cached = null;
+            }
+        }
+        if (cached == null) {
+            misses.increment();
+            return null;
+        }
+
+        // Opening fails if the entry was not sealed with this session's key
+        try {
+            byte[] page = cryptoEngine.open(cached.sealed, sessionKey(encKey), cached.nonce,
+                cacheKey.getBytes(StandardCharsets.UTF_8));
+            hits.increment();
+            return objectMapper.readValue(page, NoteDetailsPageDto.class);
+        }
+        catch (Exception e) {
+            misses.increment();
+            return null;
+        }
+    }
+
+    /**
+     * Stores a listing page. Only pages with decrypted headers should be cached.
+     * @param owner note owner
+     * @param encKey encryption key from the users cookie
+     * @param cursor position of the page
+     * @param pageSize number of notes on the page
+     * @param listVersion list version of the owner, read before the notes
+     * @param page the page
+     */
+    public void put(long owner, String encKey, NoteCursor cursor, int pageSize, long listVersion, NoteDetailsPageDto page) {
+        String sessionId = sessionId(encKey);
+        String cacheKey = cacheKey(sessionId, owner, cursor, pageSize);
+
+        CachedPage cached;
+        try {
+            byte[] nonce = cryptoEngine.generateNonce();
+            byte[] sealed = cryptoEngine.seal(objectMapper.writeValueAsBytes(page), sessionKey(encKey), nonce,
+                cacheKey.getBytes(StandardCharsets.UTF_8));
+            cached = new CachedPage(sessionId, listVersion, nonce, sealed, System.currentTimeMillis() + ttlMs);
+        }
+        catch (Exception e) {
+            return;
+        }
+
+        synchronized (entries) {
+            // A page read before a change must not replace a page read after it
+            Map<String, CachedPage> pages = entries.computeIfAbsent(owner, key -> new LinkedHashMap<>(16, 0.75f, true));
+            CachedPage previous = pages.get(cacheKey);
+            if (previous == null || previous.listVersion <= listVersion) {
+                if (pages.put(cacheKey, cached) == null) {
+                    size++;
+                }
+                trimToSize();
+            }
+        }
+    }
+
+    /**
+     * Removes all pages of the given user. Must be called when notes of the user change.
+     * @param owner note owner
+     */
+    public void invalidate(long owner) {
+        synchronized (entries) {
+            Map<String, CachedPage> pages = entries.remove(owner);
+            if (pages != null) {
+                size -= pages.size();
+                evictions.increment(pages.size());
+            }
+        }
+    }
+
+    /**
+     * Removes all pages of the session the given encryption cookie belongs to. Called when the
+     * user logs out.
+     * @param encKey encryption key from the users cookie
+     */
+    public void evictSession(String encKey) {
+        String sessionId = sessionId(encKey);
+        synchronized (entries) {
+            removeIf(entry -> entry.sessionId.equals(sessionId));
+        }
+    }
+
+    /**
+     * Removes pages older than the cache TTL
+     */
+    @Scheduled(fixedDelayString = "${noteonline.app.listingCachePurgeIntervalMs}")
+    public void purgeExpired() {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            removeIf(entry -> entry.expiresAt <= now);
+        }
+    }
+
+    private int size() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<LinkedHashMap<String, CachedPage>> owners = entries.values().iterator();
+        while (size > maxEntries && owners.hasNext()) {
+            Map<String, CachedPage> pages = owners.next();
+            Iterator<CachedPage> iterator = pages.values().iterator();
+            while (size > maxEntries && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+                size--;
+                evictions.increment();
+            }
+            if (pages.isEmpty()) {
+                owners.remove();
+            }
+        }
+    }
+
+    private void removePage(long owner, Map<String, CachedPage> pages, String cacheKey) {
+        pages.remove(cacheKey);
+        size--;
+        evictions.increment();
+        if (pages.isEmpty()) {
+            entries.remove(owner);
+        }
+    }
+
+    private void removeIf(Predicate<CachedPage> predicate) {
+        Iterator<LinkedHashMap<String, CachedPage>> owners = entries.values().iterator();
+        while (owners.hasNext()) {
+            Map<String, CachedPage> pages = owners.next();
+            Iterator<CachedPage> iterator = pages.values().iterator();
+            while (iterator.hasNext()) {
+                if (predicate.test(iterator.next())) {
+                    iterator.remove();
+                    size--;
+                    evictions.increment();
+                }
+            }
+            if (pages.isEmpty()) {
+                owners.remove();
+            }
+        }
+    }
+
+    private static String cacheKey(String sessionId, long owner, NoteCursor cursor, int pageSize) {
+        return sessionId + ":" + owner + ":" + cursor.getSort() + ":" + cursor.encode() + ":" + pageSize;
+    }
+
+    /**
+     * Derives the key pages of a session are sealed with. Unlike the session id, the key can't be
+     * calculated from anything kept in memory.
+     * @param encKey encryption key from the users cookie
+     * @return session key
+     * @throws GeneralSecurityException
+     */
+    private SecretKey sessionKey(String encKey) throws GeneralSecurityException {
+        SecretKey cookieKey = cryptoEngine.bytesToKey(encKey.getBytes(StandardCharsets.UTF_8));
+        return cryptoEngine.bytesToKey(cryptoEngine.mac(cookieKey, List.of(SESSION_KEY_LABEL)).get(0));
+    }
+
+    /**
+     * Creates an identifier for the session the given encryption cookie belongs to
+     * @param encKey encryption key from the users cookie
+     * @return Base64 encoded SHA-256 hash of the key
+     */
+    private static String sessionId(String encKey) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(encKey.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class CachedPage {
+        private final String sessionId;
+        private final long listVersion;
+        private final byte[] nonce;
+        private final byte[] sealed;
+        private final long expiresAt;
+
+        CachedPage(String sessionId, long listVersion, byte[] nonce, byte[] sealed, long expiresAt) {
+            this.sessionId = sessionId;
+            this.listVersion = listVersion;
+            this.nonce = nonce;
+            this.sealed = sealed;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package fi.tuni.sepro.noteonline.services;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.crypto.SecretKey;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Blind index for searching notes without decrypting them. Words of the header and content, and
+ * their prefixes, are stored as truncated HMACs keyed per user, so the database only sees which
+ * notes of a user share a word, not the words themselves. Must be updated in the same transaction
+ * as the notes.
+ *
+ * At most maxTokensPerNote terms are indexed per note, so words near the end of very long notes
+ * may not be found. Truncated notes are logged.
+ */
+@Service
+public class NoteSearchIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(NoteSearchIndex.class);
+
+    // Words shorter than this are not indexed, prefixes shorter than PREFIX_MIN_LENGTH are not indexed
+    private static final int WORD_MIN_LENGTH = 2;
+    private static final int WORD_MAX_LENGTH = 32;
+    private static final int PREFIX_MIN_LENGTH = 3;
+
+    private static final int TOKEN_LENGTH = 16;
+    private static final Pattern WORD_SEPARATOR = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+
+    // Derives the index key from the data key, so the index key is never used for anything else
+    private static final byte[] INDEX_KEY_LABEL = "noteonline-search-index".getBytes(StandardCharsets.UTF_8);
+
+    // Every indexed note has this token, so notes without any words are known to be indexed
+    private static final String NOTE_MARKER = "";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final CryptoEngine cryptoEngine;
+
+    @Value("${noteonline.app.searchMaxTokensPerNote}")
+    private int maxTokensPerNote;
+
+    NoteSearchIndex(JdbcTemplate jdbcTemplate, CryptoEngine cryptoEngine) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.cryptoEngine = cryptoEngine;
+    }
+
+    /**
+     * Replaces the index entries of the given notes
+     * @param owner owner of the notes
+     * @param dataKey data key of the owner
+     * @param notes plain text of each note by note id
+     * @throws GeneralSecurityException tokens could not be calculated
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void replace(long owner, SecretKey dataKey, Map<Long, String> notes) throws GeneralSecurityException {
+        if (notes.isEmpty()) {
+            return;
+        }
+
+        SecretKey indexKey = indexKey(dataKey);
+        List<Object[]> rows = new ArrayList<>();
+        for (Map.Entry<Long, String> note : notes.entrySet()) {
+            for (byte[] token : tokens(indexKey, noteTerms(note.getKey(), note.getValue()))) {
+                rows.add(new Object[] { owner, token, note.getKey() });
+            }
+        }
+
+        remove(notes.keySet());
+        // Concurrent searches may index the same unindexed note, the first insert wins
+        jdbcTemplate.batchUpdate("INSERT INTO note_search_tokens (owner, token, note_id) VALUES (?, ?, ?) "
+            + "ON CONFLICT DO NOTHING", rows);
+    }
+
+    /**
+     * Removes the index entries of the given notes
+     * @param noteIds ids of the notes
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void remove(Collection<Long> noteIds) {
+        jdbcTemplate.batchUpdate("DELETE FROM note_search_tokens WHERE note_id = ?", 
+            noteIds.stream().map(id -> new Object[] { id }).toList());
+    }
+
+    /**
+     * Finds notes containing all words of the query. Words of three or more characters also match
+     * longer words starting with them.
+     * @param owner note owner
+     * @param dataKey data key of the owner
+     * @param query search query in plain text
+     * @return ids of matching notes, empty if the query has no searchable words
+     * @throws GeneralSecurityException tokens could not be calculated
+     */
+    public List<Long> search(long owner, SecretKey dataKey, String query) throws GeneralSecurityException {
+        List<String> terms = new ArrayList<>(words(query));
+        if (terms.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<byte[]> tokens = tokens(indexKey(dataKey), terms);
+        List<Object> args = new ArrayList<>(tokens.size() + 2);
+        args.add(owner);
+        args.addAll(tokens);
+        args.add(tokens.size());
+
+        // Each token is stored once per note, so a note matches all terms when all tokens are found
+        String placeholders = String.join(", ", Collections.nCopies(tokens.size(), "?"));
+        return jdbcTemplate.queryForList("SELECT note_id FROM note_search_tokens WHERE owner = ? AND token IN (" 
+            + placeholders + ") GROUP BY note_id HAVING COUNT(*) = ?", Long.class, args.toArray());
+    }
+
+    /**
+     * Finds notes of the owner that have not been indexed, such as notes written before the index existed
+     * @param owner note owner
+     * @return ids of notes without index entries
+     */
+    public List<Long> findUnindexed(long owner) {
+        return jdbcTemplate.queryForList("SELECT id FROM notes n WHERE n.owner = ? AND NOT EXISTS "
+            + "(SELECT 1 FROM note_search_tokens t WHERE t.note_id = n.id)", Long.class, owner);
+    }
+
+    /**
+     * Gets the terms indexed for a note, words and their prefixes
+     * @param noteId id of the note, for logging
+     * @param text plain note text
+     * @return distinct terms, at most maxTokensPerNote
+     */
+    private List<String> noteTerms(long noteId, String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        terms.add(NOTE_MARKER);
+        for (String word : words(text)) {
+            for (int length = Math.min(PREFIX_MIN_LENGTH, word.length()); length <= word.length(); length++) {
+                String term = word.substring(0, length);
+                if (terms.size() >= maxTokensPerNote && !terms.contains(term)) {
+                    logger.warn("Search index of note {} truncated to {} terms", noteId, maxTokensPerNote);
+                    return new ArrayList<>(terms);
+                }
+                terms.add(term);
+            }
+        }
+        return new ArrayList<>(terms);
+    }
+
+    /**
+     * Splits text into normalized words, lower case and in compatibility form
+     * @param text plain text
+     * @return distinct words in order of appearance
+     */
+    private static Set<String> words(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        Set<String> words = new LinkedHashSet<>();
+        for (String word : WORD_SEPARATOR.split(normalized)) {
+            if (word.length() >= WORD_MIN_LENGTH && word.length() <= WORD_MAX_LENGTH) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    private List<byte[]> tokens(SecretKey indexKey, List<String> terms) throws GeneralSecurityException {
+        List<byte[]> tokens = cryptoEngine.mac(indexKey, 
+            terms.stream().map(term -> term.getBytes(StandardCharsets.UTF_8)).toList());
+        return tokens.stream().map(token -> Arrays.copyOf(token, TOKEN_LENGTH)).toList();
+    }
+
+    private SecretKey indexKey(SecretKey dataKey) throws GeneralSecurityException {
+        return cryptoEngine.bytesToKey(cryptoEngine.mac(dataKey, List.of(INDEX_KEY_LABEL)).get(0));
+    }
+}
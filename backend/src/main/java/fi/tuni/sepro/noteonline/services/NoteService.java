@@ -1,41 +1,102 @@
 package fi.tuni.sepro.noteonline.services;
 
-import java.security.InvalidAlgorithmParameterException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
-import java.security.InvalidParameterException;
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import fi.tuni.sepro.noteonline.dto.NoteBatchResultDto;
+import fi.tuni.sepro.noteonline.dto.NoteChangesDto;
+import fi.tuni.sepro.noteonline.dto.NoteDetailsPageDto;
 import fi.tuni.sepro.noteonline.dto.NoteDetailsResponseDto;
 import fi.tuni.sepro.noteonline.dto.NoteResponseDto;
+import fi.tuni.sepro.noteonline.dto.StorageStatsDto;
+import fi.tuni.sepro.noteonline.exception.ChangeCursorExpiredException;
 import fi.tuni.sepro.noteonline.exception.NoteCountLimitException;
 import fi.tuni.sepro.noteonline.exception.NoteDecryptionException;
 import fi.tuni.sepro.noteonline.exception.NoteEncryptionException;
+import fi.tuni.sepro.noteonline.exception.NoteStorageLimitException;
 import fi.tuni.sepro.noteonline.models.Note;
+import fi.tuni.sepro.noteonline.repository.NoteHeaderView;
 import fi.tuni.sepro.noteonline.repository.NoteRepository;
-import fi.tuni.sepro.noteonline.utils.EncryptionUtils;
+import fi.tuni.sepro.noteonline.repository.NoteVersionView;
+import fi.tuni.sepro.noteonline.utils.NoteBlob;
+import fi.tuni.sepro.noteonline.utils.NoteChangeCursor;
+import fi.tuni.sepro.noteonline.utils.NoteCompression;
+import fi.tuni.sepro.noteonline.utils.NoteCursor;
+import io.micrometer.core.annotation.Timed;
 
 @Service
+@Timed(value = "noteonline.notes", description = "Note operations, including decryption and database access")
 public class NoteService {
 
+    private static final int FILE_KEY_SIZE = 256;
+
+    private static final String NOTE_LIMIT_MESSAGE = "Maximum number of notes added";
+    private static final String STORAGE_LIMIT_MESSAGE = "Note storage limit reached";
+
+    // Page size of listings returning all notes in one page, for clients that don't request pages
+    public static final int UNPAGED = -1;
+
     private final NoteRepository noteRepository;
+    private final KeyEncryptionKeyCache keyCache;
+    private final DataKeyService dataKeyService;
+    private final CryptoWorkerPool cryptoWorkerPool;
+    private final UsageLedgerService usageLedger;
+    private final CryptoEngine cryptoEngine;
+    private final NoteTombstoneService tombstoneService;
+    private final NoteSearchIndex searchIndex;
+    private final NoteListingCache listingCache;
+
+    @Value("${noteonline.app.notePageSize}")
+    private int defaultPageSize;
+
+    @Value("${noteonline.app.notePageSizeMax}")
+    private int maxPageSize;
+
+    @Value("${noteonline.app.noteChangesOverlapMs}")
+    private long changesOverlapMs;
+
+    @Value("${noteonline.app.noteCompression}")
+    private boolean compression;
+
+    @Value("${noteonline.app.noteCompressionLevel}")
+    private int compressionLevel;
 
-    @Value("${noteonline.app.maxNotesPerUser}")
-    private int maxNotesPerUser;
+    @Value("${noteonline.app.noteCompressionMinSavedBytes}")
+    private int compressionMinSavedBytes;
 
-    NoteService(NoteRepository noteRepository) {
+    NoteService(NoteRepository noteRepository, KeyEncryptionKeyCache keyCache, 
+            DataKeyService dataKeyService, CryptoWorkerPool cryptoWorkerPool, UsageLedgerService usageLedger, 
+            CryptoEngine cryptoEngine, NoteTombstoneService tombstoneService, NoteSearchIndex searchIndex,
+            NoteListingCache listingCache) {
         this.noteRepository = noteRepository;
+        this.keyCache = keyCache;
+        this.dataKeyService = dataKeyService;
+        this.cryptoWorkerPool = cryptoWorkerPool;
+        this.usageLedger = usageLedger;
+        this.cryptoEngine = cryptoEngine;
+        this.tombstoneService = tombstoneService;
+        this.searchIndex = searchIndex;
+        this.listingCache = listingCache;
     }
 
     /**
@@ -47,12 +108,32 @@ public class NoteService {
     }
 
     /**
-     * Gets all note details. Header is in ecnrypted form.
-     * @return List of note details
+     * Gets a page of all note details. Header is in ecnrypted form.
+     * @param cursor position of the page
+     * @param pageSize number of notes on the page, 0 for the default size, UNPAGED for all notes
+     * @return Page of note details
      */
-    public List<NoteDetailsResponseDto> getAllNoteDetails() {
-        List<Note> notes = noteRepository.findAll();
-        return notes.stream().map(note -> createDetailsResponse(note)).collect(Collectors.toList());
+    public NoteDetailsPageDto getAllNoteDetails(NoteCursor cursor, int pageSize) {
+        int size = listingPageSize(pageSize);
+        Pageable page = pageWithExtraRow(size);
+        List<NoteHeaderView> notes = cursor.getSort() == NoteCursor.Sort.CREATED
+            ? noteRepository.findHeadersCreatedBefore(cursor.getTimestamp(), cursor.getId(), page)
+            : noteRepository.findHeadersModifiedBefore(cursor.getTimestamp(), cursor.getId(), page);
+
+        return createPage(notes, cursor.getSort(), size, 
+            pageNotes -> pageNotes.stream().map(note -> createDetailsResponse(note)).collect(Collectors.toList()));
+    }
+
+    /**
+     * Passes details of all notes to the consumer one at a time, header in encrypted form.
+     * Notes are read with a database cursor, so memory use does not depend on the number of notes.
+     * @param consumer receives note details in id order
+     */
+    @Transactional(readOnly = true)
+    public void forEachNoteDetails(Consumer<NoteDetailsResponseDto> consumer) {
+        try (Stream<NoteHeaderView> notes = noteRepository.streamAllHeaders()) {
+            notes.map(note -> createDetailsResponse(note)).forEach(consumer);
+        }
     }
 
     /**
@@ -65,15 +146,254 @@ public class NoteService {
     }
 
     /**
-     * Gets note details (= everything except note content) in decrypted format
+     * Gets a page of note details (= everything except note content) in decrypted format
+     * @param userId note owner
+     * @param encKey decryption key
+     * @param cursor position of the page
+     * @param pageSize number of notes on the page, 0 for the default size, UNPAGED for all notes
+     * @return page of note details
+     */
+    public NoteDetailsPageDto getNoteDetailsByUser(Long userId, String encKey, NoteCursor cursor, int pageSize) {
+        return getNoteDetailsByUser(userId, encKey, cursor, pageSize, null);
+    }
+
+    /**
+     * Gets a page of note details (= everything except note content) in decrypted format. Pages
+     * are cached per session until notes of the user change.
      * @param userId note owner
      * @param encKey decryption key
-     * @return list of note details
+     * @param cursor position of the page
+     * @param pageSize number of notes on the page, 0 for the default size, UNPAGED for all notes
+     * @param listVersion list version of the user read before this call, null to skip the cache
+     * @return page of note details
      */
-    public List<NoteDetailsResponseDto> getNoteDetailsByUser(Long userId, String encKey) {
-        List<Note> notes = noteRepository.findByOwner(userId);
-        return notes.stream().map(note -> createDetailsResponseDecrypted(note, encKey))
-            .collect(Collectors.toList());
+    public NoteDetailsPageDto getNoteDetailsByUser(Long userId, String encKey, NoteCursor cursor, int pageSize, 
+            Long listVersion) {
+        int size = listingPageSize(pageSize);
+        if (listVersion != null) {
+            NoteDetailsPageDto cached = listingCache.get(userId, encKey, cursor, size, listVersion);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        Pageable page = pageWithExtraRow(size);
+        List<NoteHeaderView> notes = cursor.getSort() == NoteCursor.Sort.CREATED
+            ? noteRepository.findHeadersByOwnerCreatedBefore(userId, cursor.getTimestamp(), cursor.getId(), page)
+            : noteRepository.findHeadersByOwnerModifiedBefore(userId, cursor.getTimestamp(), cursor.getId(), page);
+
+        // Headers are decrypted in parallel, failed notes are returned encrypted
+        SecretKey notesKey = getDataKeyOrNull(userId, encKey);
+        NoteDetailsPageDto result = createPage(notes, cursor.getSort(), size, 
+            pageNotes -> cryptoWorkerPool.map(pageNotes, note -> createDetailsResponseDecrypted(note, encKey, notesKey)));
+
+        // Pages are only cached when the data key could be unwrapped, so headers are decrypted.
+        // Legacy V1 notes are decrypted without the data key, those users are not cached.
+        result.setDecrypted(notesKey != null);
+        if (listVersion != null && notesKey != null) {
+            listingCache.put(userId, encKey, cursor, size, listVersion, result);
+        }
+        return result;
+    }
+
+    /**
+     * Creates a page from notes fetched with one extra row, which tells if there is a next page
+     * @param notes notes fetched, at most pageSize + 1
+     * @param sort sort order of the listing
+     * @param pageSize requested page size
+     * @param mapper function creating the response for notes on the page
+     * @return page with cursor pointing after the last note, if more notes exist
+     */
+    private NoteDetailsPageDto createPage(List<NoteHeaderView> notes, NoteCursor.Sort sort, int pageSize,
+            Function<List<NoteHeaderView>, List<NoteDetailsResponseDto>> mapper) {
+        if (notes.size() <= pageSize) {
+            return new NoteDetailsPageDto(mapper.apply(notes), null);
+        }
+
+        List<NoteHeaderView> pageNotes = notes.subList(0, pageSize);
+        NoteHeaderView last = pageNotes.get(pageSize - 1);
+        long timestamp = sort == NoteCursor.Sort.CREATED ? last.getCreatedAt() : last.getModifiedAt();
+        return new NoteDetailsPageDto(mapper.apply(pageNotes), NoteCursor.after(sort, timestamp, last.getId()).encode());
+    }
+
+    /**
+     * Gets notes of the user created or modified after the cursor, with headers in decrypted format,
+     * and ids of notes deleted after the cursor
+     * @param userId note owner
+     * @param encKey decryption key
+     * @param cursor position in the change feed
+     * @param pageSize maximum number of changed notes, 0 for the default size
+     * @return changes after the cursor
+     * @throws ChangeCursorExpiredException cursor is older than the tombstone retention
+     */
+    public NoteChangesDto getNoteChangesByUser(Long userId, String encKey, NoteChangeCursor cursor, int pageSize) 
+            throws ChangeCursorExpiredException {
+        checkCursorExpiry(cursor);
+        long now = System.currentTimeMillis();
+        Pageable page = PageRequest.ofSize(clampPageSize(pageSize) + 1);
+        List<NoteHeaderView> notes = noteRepository.findHeadersByOwnerModifiedAfter(userId, 
+            cursor.getTimestamp(), cursor.getId(), page);
+        List<Long> deleted = cursor.isFirst() ? List.of() : tombstoneService.getDeletedSince(userId, cursor.getTimestamp());
+
+        SecretKey notesKey = getDataKeyOrNull(userId, encKey);
+        return createChanges(notes, deleted, cursor, now, page.getPageSize() - 1,
+            pageNotes -> cryptoWorkerPool.map(pageNotes, note -> createDetailsResponseDecrypted(note, encKey, notesKey)));
+    }
+
+    /**
+     * Gets all notes created or modified after the cursor, header in encrypted form, and ids of
+     * notes deleted after the cursor
+     * @param cursor position in the change feed
+     * @param pageSize maximum number of changed notes, 0 for the default size
+     * @return changes after the cursor
+     * @throws ChangeCursorExpiredException cursor is older than the tombstone retention
+     */
+    public NoteChangesDto getAllNoteChanges(NoteChangeCursor cursor, int pageSize) throws ChangeCursorExpiredException {
+        checkCursorExpiry(cursor);
+        long now = System.currentTimeMillis();
+        Pageable page = PageRequest.ofSize(clampPageSize(pageSize) + 1);
+        List<NoteHeaderView> notes = noteRepository.findHeadersModifiedAfter(cursor.getTimestamp(), cursor.getId(), page);
+        List<Long> deleted = cursor.isFirst() ? List.of() : tombstoneService.getDeletedSince(null, cursor.getTimestamp());
+
+        return createChanges(notes, deleted, cursor, now, page.getPageSize() - 1,
+            pageNotes -> pageNotes.stream().map(note -> createDetailsResponse(note)).collect(Collectors.toList()));
+    }
+
+    private void checkCursorExpiry(NoteChangeCursor cursor) throws ChangeCursorExpiredException {
+        if (!cursor.isFirst() && tombstoneService.isExpired(cursor.getTimestamp())) {
+            throw new ChangeCursorExpiredException("Cursor has expired, all notes must be reloaded");
+        }
+    }
+
+    /**
+     * Creates changes from notes fetched with one extra row, which tells if more changes exist
+     * @param notes changed notes, at most pageSize + 1
+     * @param deleted ids of deleted notes
+     * @param cursor cursor of the request
+     * @param now time before the notes were fetched
+     * @param pageSize requested number of notes
+     * @param mapper function creating the response for returned notes
+     * @return changes with the cursor for the next request
+     */
+    private NoteChangesDto createChanges(List<NoteHeaderView> notes, List<Long> deleted, NoteChangeCursor cursor, 
+            long now, int pageSize, Function<List<NoteHeaderView>, List<NoteDetailsResponseDto>> mapper) {
+        if (notes.size() > pageSize) {
+            List<NoteHeaderView> pageNotes = notes.subList(0, pageSize);
+            NoteHeaderView last = pageNotes.get(pageSize - 1);
+            String next = NoteChangeCursor.after(last.getModifiedAt(), last.getId()).encode();
+            return new NoteChangesDto(mapper.apply(pageNotes), deleted, next, true);
+        }
+
+        // Timestamps are set before commit, so a write still in progress can become visible with an
+        // earlier timestamp. The next request repeats the overlap window, clients apply changes by id.
+        long safeTimestamp = now - changesOverlapMs;
+        NoteChangeCursor next = cursor.getTimestamp() >= safeTimestamp ? cursor : NoteChangeCursor.after(safeTimestamp, 0);
+        return new NoteChangesDto(mapper.apply(notes), deleted, next.encode(), false);
+    }
+
+    /**
+     * Searches notes of the user by words of the header and content. Notes missing from the search
+     * index, such as notes created before it, are decrypted and indexed first.
+     * @param userId note owner
+     * @param encKey decryption key
+     * @param query search words
+     * @param pageSize maximum number of notes, 0 for the default size
+     * @return details of matching notes in decrypted format, most recently modified first
+     * @throws NoteDecryptionException data key could not be unwrapped
+     */
+    @Transactional
+    public List<NoteDetailsResponseDto> searchNotes(Long userId, String encKey, String query, int pageSize) 
+            throws NoteDecryptionException {
+        SecretKey dataKey;
+        List<Long> ids;
+        try {
+            dataKey = dataKeyService.getOrCreateDataKey(userId, encKey);
+            indexUnindexedNotes(userId, encKey, dataKey);
+            ids = searchIndex.search(userId, dataKey, query);
+        }
+        catch (GeneralSecurityException e) {
+            throw new NoteDecryptionException(e.getMessage());
+        }
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+
+        List<NoteHeaderView> notes = noteRepository.findHeadersByOwnerAndIdIn(userId, ids, 
+            PageRequest.ofSize(clampPageSize(pageSize)));
+        return cryptoWorkerPool.map(notes, note -> createDetailsResponseDecrypted(note, encKey, dataKey));
+    }
+
+    /**
+     * Indexes notes of the user that are not in the search index. Notes that can't be decrypted
+     * are skipped, they are tried again on the next search.
+     */
+    private void indexUnindexedNotes(long userId, String encKey, SecretKey dataKey) throws GeneralSecurityException {
+        List<Long> unindexed = searchIndex.findUnindexed(userId);
+        if (unindexed.isEmpty()) {
+            return;
+        }
+
+        Map<Long, String> searchTexts = new HashMap<>();
+        for (Note stored : noteRepository.findAllById(unindexed)) {
+            Note note = copyOf(stored);
+            try {
+                decryptNote(note, encKey);
+                searchTexts.put(note.getId(), searchText(note.getHeader(), note.getContent()));
+            }
+            catch (GeneralSecurityException e) {
+                continue;
+            }
+        }
+        searchIndex.replace(userId, dataKey, searchTexts);
+    }
+
+    /**
+     * Updates the search index of the given notes, in the transaction writing the notes
+     * @param owner owner of the notes
+     * @param dataKey data key of the owner
+     * @param searchTexts plain text of each note by note id
+     */
+    private void indexNotes(long owner, SecretKey dataKey, Map<Long, String> searchTexts) {
+        try {
+            searchIndex.replace(owner, dataKey, searchTexts);
+        }
+        // Unchecked, so the note changes are rolled back too
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Search index update failed", e);
+        }
+    }
+
+    private static String searchText(byte[] header, byte[] content) {
+        return new String(header) + "\n" + new String(content);
+    }
+
+    private static String searchText(String header, String content) {
+        return header + "\n" + content;
+    }
+
+    /**
+     * Gets the page size of a note listing
+     * @param pageSize requested page size, UNPAGED for all notes
+     * @return page size, Integer.MAX_VALUE for all notes
+     */
+    private int listingPageSize(int pageSize) {
+        return pageSize == UNPAGED ? Integer.MAX_VALUE : clampPageSize(pageSize);
+    }
+
+    /**
+     * Creates a page request fetching one extra row, which tells if there is a next page
+     * @param size page size from listingPageSize
+     * @return page request, unpaged for all notes
+     */
+    private static Pageable pageWithExtraRow(int size) {
+        return size == Integer.MAX_VALUE ? Pageable.unpaged() : PageRequest.ofSize(size + 1);
+    }
+
+    private int clampPageSize(int pageSize) {
+        if (pageSize <= 0) {
+            return defaultPageSize;
+        }
+        return Math.min(pageSize, maxPageSize);
     }
 
     /**
@@ -81,24 +401,37 @@ public class NoteService {
      * @param note unencrypted note data, with encryption key provided
      * @return Encrypted note
      * @throws NoteCountLimitException user max notes reached, see maxNotesPerUser setting
+     * @throws NoteStorageLimitException user max bytes reached, see maxNoteBytesPerUser setting
      * @throws NoteEncryptionException note encryption fails
      */
-    public Note createNote(Note note) throws NoteCountLimitException, NoteEncryptionException {
-
-        List<Note> notesByUser = noteRepository.findByOwner(note.getOwner());
-        if (notesByUser.size() >= maxNotesPerUser) {
-            throw new NoteCountLimitException("Maximum number of notes added");
-        }
+    @Transactional
+    public Note createNote(Note note) throws NoteCountLimitException, NoteStorageLimitException, NoteEncryptionException {
 
         note.setCreatedAt(System.currentTimeMillis());
         note.setModifiedAt(System.currentTimeMillis());
+        String searchText = searchText(note.getHeader(), note.getContent());
+        SecretKey dataKey;
         try {
-            encryptNote(note);
+            dataKey = dataKeyService.getOrCreateDataKey(note.getOwner(), new String(note.getEncryptionKey()));
+            // The id is authenticated with the note, so it's allocated before encryption
+            note.setAllocatedId(noteRepository.allocateId());
+            encryptNote(note, note.getAllocatedId(), dataKey);
         } catch (Exception e) {
             throw new NoteEncryptionException(e.getMessage());
         }
 
-        return noteRepository.save(note);
+        // Limits are checked against the encrypted size
+        if (!usageLedger.reserve(note.getOwner(), 1, UsageLedgerService.storedBytes(note))) {
+            if (usageLedger.exceedsNoteLimit(note.getOwner(), 1)) {
+                throw new NoteCountLimitException(NOTE_LIMIT_MESSAGE);
+            }
+            throw new NoteStorageLimitException(STORAGE_LIMIT_MESSAGE);
+        }
+
+        Note saved = noteRepository.save(note);
+        indexNotes(saved.getOwner(), dataKey, Map.of(saved.getId(), searchText));
+        listingCache.invalidate(saved.getOwner());
+        return saved;
     }
 
     /**
@@ -111,6 +444,35 @@ public class NoteService {
             .orElseThrow(() -> new IllegalArgumentException("Note was not found!"));
     }
 
+    /**
+     * Gets the owner and modification time of a note, without loading the note data
+     * @param id id of note
+     * @return note version
+     */
+    public NoteVersionView getNoteVersion(Long id) {
+        return noteRepository.findVersionById(id)
+            .orElseThrow(() -> new IllegalArgumentException("Note was not found!"));
+    }
+
+    /**
+     * Gets the version of the users note listing, which changes whenever a note of the user changes
+     * @param userId note owner
+     * @return list version, null if not known yet
+     */
+    public Long getListVersion(Long userId) {
+        return usageLedger.getListVersion(userId);
+    }
+
+    /**
+     * Gets storage totals of all users and the users with the most stored bytes. Usage is kept
+     * up to date on every note write, so notes are not scanned.
+     * @param top number of top users to return
+     * @return storage statistics
+     */
+    public StorageStatsDto getStorageStats(int top) {
+        return usageLedger.getStorageStats(top);
+    }
+
     /**
      * Find note with the given id, in decrypted format
      * @param id note id
@@ -119,7 +481,8 @@ public class NoteService {
      * @throws NoteDecryptionException note decryption fails
      */
     public Note getNoteByIdDecrypted(Long id, String decKey) throws NoteDecryptionException {
-        Note note = noteRepository.findById(id).orElseThrow(() -> new IllegalArgumentException("Note was not found!"));
+        Note note = copyOf(noteRepository.findById(id)
+            .orElseThrow(() -> new IllegalArgumentException("Note was not found!")));
 
         try {
             decryptNote(note, decKey);
@@ -136,34 +499,336 @@ public class NoteService {
      * @param id Note id to update
      * @param newNote New note data in plain format
      * @return Encrypted note
+     * @throws NoteStorageLimitException the larger note would exceed the storage limit of the user
      */
-    public Note updateNote(Long id, Note newNote) {
+    @Transactional
+    public Note updateNote(Long id, Note newNote) throws NoteStorageLimitException {
         Note existingNote = noteRepository.findById(id)
             .orElseThrow(() -> new IllegalArgumentException("Note was not found"));
-        
-        existingNote.setHeader(newNote.getHeader());
-        existingNote.setContent(newNote.getContent());
-
-        // Update timestamp of note
-        existingNote.setModifiedAt(System.currentTimeMillis());
-        existingNote.setEncryptionKey(newNote.getEncryptionKey());
+        long previousBytes = UsageLedgerService.storedBytes(existingNote);
+        String searchText = searchText(newNote.getHeader(), newNote.getContent());
 
-        // Encrypt note
+        // Encrypt into the request note, the stored note is only changed once the space is reserved.
+        // Reserving may seed the usage row from stored notes, which must not include this change yet.
+        newNote.setId(existingNote.getId());
+        newNote.setOwner(existingNote.getOwner());
+        SecretKey dataKey;
         try {
-            encryptNote(existingNote);
-            return noteRepository.save(existingNote);
+            dataKey = dataKeyService.getOrCreateDataKey(newNote.getOwner(), new String(newNote.getEncryptionKey()));
+            encryptNote(newNote, existingNote.getId(), dataKey);
         }
         catch (Exception e) {
             throw new IllegalArgumentException("Note could not be encrypted");
         }
+
+        // Only growing notes can exceed the storage limit
+        long addedBytes = UsageLedgerService.storedBytes(newNote) - previousBytes;
+        if (addedBytes > 0 && !usageLedger.reserve(existingNote.getOwner(), 0, addedBytes)) {
+            throw new NoteStorageLimitException(STORAGE_LIMIT_MESSAGE);
+        }
+
+        existingNote.setHeader(newNote.getHeader());
+        existingNote.setContent(newNote.getContent());
+        existingNote.setEncryptionKey(newNote.getEncryptionKey());
+        existingNote.setIv(newNote.getIv());
+        existingNote.setSalt(newNote.getSalt());
+        existingNote.setFormatVersion(newNote.getFormatVersion());
+        existingNote.setModifiedAt(System.currentTimeMillis());
+
+        Note saved = noteRepository.save(existingNote);
+        if (addedBytes < 0) {
+            usageLedger.release(existingNote.getOwner(), 0, -addedBytes);
+        }
+        else if (addedBytes == 0) {
+            usageLedger.markChanged(existingNote.getOwner());
+        }
+        indexNotes(saved.getOwner(), dataKey, Map.of(saved.getId(), searchText));
+        listingCache.invalidate(saved.getOwner());
+        return saved;
     }
     
     /**
      * Deletes note with given id
      * @param id note id to delete
      */
+    @Transactional
     public void deleteNote(Long id) {
-        noteRepository.deleteById(id);
+        noteRepository.findById(id).ifPresent(note -> {
+            noteRepository.delete(note);
+            noteRepository.flush();
+            tombstoneService.recordDeleted(List.of(note));
+            searchIndex.remove(List.of(note.getId()));
+            usageLedger.release(note.getOwner(), 1, UsageLedgerService.storedBytes(note));
+            listingCache.invalidate(note.getOwner());
+        });
+    }
+
+    /**
+     * Creates notes of a single owner in one transaction. The data key is unwrapped once and notes
+     * are inserted in JDBC batches. Notes exceeding the user limits are rejected, others are created.
+     * @param owner owner of the notes
+     * @param notes plain notes
+     * @param encKey encryption key of the owner
+     * @return result of each note, in the same order as notes
+     * @throws NoteEncryptionException data key could not be unwrapped or a note could not be encrypted
+     */
+    @Transactional
+    public List<NoteBatchResultDto> createNotes(long owner, List<Note> notes, String encKey) throws NoteEncryptionException {
+        long now = System.currentTimeMillis();
+        List<NoteResponseDto> plainNotes = new ArrayList<>(notes.size());
+        long[] addedBytes = new long[notes.size()];
+        SecretKey dataKey;
+
+        try {
+            dataKey = dataKeyService.getOrCreateDataKey(owner, encKey);
+            for (int i = 0; i < notes.size(); i++) {
+                Note note = notes.get(i);
+                plainNotes.add(new NoteResponseDto(0, owner, now, now, 
+                    new String(note.getHeader()), new String(note.getContent())));
+
+                note.setOwner(owner);
+                note.setCreatedAt(now);
+                note.setModifiedAt(now);
+                note.setAllocatedId(noteRepository.allocateId());
+                encryptNote(note, note.getAllocatedId(), dataKey);
+                addedBytes[i] = UsageLedgerService.storedBytes(note);
+            }
+        }
+        catch (Exception e) {
+            throw new NoteEncryptionException(e.getMessage());
+        }
+
+        String[] rejected = reserveAll(owner, 1, addedBytes);
+        List<Note> accepted = new ArrayList<>();
+        for (int i = 0; i < notes.size(); i++) {
+            if (rejected[i] == null) {
+                accepted.add(notes.get(i));
+            }
+        }
+        noteRepository.saveAll(accepted);
+
+        List<NoteBatchResultDto> results = new ArrayList<>(notes.size());
+        Map<Long, String> searchTexts = new HashMap<>();
+        for (int i = 0; i < notes.size(); i++) {
+            if (rejected[i] != null) {
+                results.add(new NoteBatchResultDto(0, 400, rejected[i], null));
+                continue;
+            }
+            NoteResponseDto plain = plainNotes.get(i);
+            plain.setId(notes.get(i).getId());
+            results.add(new NoteBatchResultDto(plain.getId(), 201, null, plain));
+            searchTexts.put(plain.getId(), searchText(plain.getHeader(), plain.getContent()));
+        }
+        indexNotes(owner, dataKey, searchTexts);
+        listingCache.invalidate(owner);
+        return results;
+    }
+
+    /**
+     * Updates notes of a single owner in one transaction. Notes of other users, missing notes and
+     * notes exceeding the storage limit are rejected, others are updated.
+     * @param owner owner of the notes
+     * @param notes plain notes, with the id of the note to update
+     * @param encKey encryption key of the owner
+     * @return result of each note, in the same order as notes
+     * @throws NoteEncryptionException data key could not be unwrapped or a note could not be encrypted
+     */
+    @Transactional
+    public List<NoteBatchResultDto> updateNotes(long owner, List<Note> notes, String encKey) throws NoteEncryptionException {
+        Map<Long, Note> existingNotes = findAllById(notes.stream().map(Note::getId).toList());
+        long now = System.currentTimeMillis();
+        NoteBatchResultDto[] results = new NoteBatchResultDto[notes.size()];
+        long[] addedBytes = new long[notes.size()];
+        SecretKey dataKey;
+
+        // Request notes are encrypted first, so stored notes are only changed if the space is reserved
+        try {
+            dataKey = dataKeyService.getOrCreateDataKey(owner, encKey);
+            for (int i = 0; i < notes.size(); i++) {
+                Note note = notes.get(i);
+                Note existing = existingNotes.get(note.getId());
+                if (existing == null) {
+                    results[i] = new NoteBatchResultDto(note.getId(), 404, "Note was not found", null);
+                    continue;
+                }
+                if (existing.getOwner() != owner) {
+                    results[i] = new NoteBatchResultDto(note.getId(), 401, "Unauthorized update!", null);
+                    continue;
+                }
+
+                results[i] = new NoteBatchResultDto(note.getId(), 200, null, new NoteResponseDto(note.getId(), owner, 
+                    existing.getCreatedAt(), now, new String(note.getHeader()), new String(note.getContent())));
+                note.setOwner(owner);
+                encryptNote(note, existing.getId(), dataKey);
+                addedBytes[i] = Math.max(0, UsageLedgerService.storedBytes(note) - UsageLedgerService.storedBytes(existing));
+            }
+        }
+        catch (Exception e) {
+            throw new NoteEncryptionException(e.getMessage());
+        }
+
+        // Only growing notes can exceed the storage limit
+        String[] rejected = reserveAll(owner, 0, addedBytes);
+        long releasedBytes = 0;
+        boolean updated = false;
+        Map<Long, String> searchTexts = new HashMap<>();
+        for (int i = 0; i < notes.size(); i++) {
+            Note note = notes.get(i);
+            if (results[i].getStatus() != 200) {
+                continue;
+            }
+            if (rejected[i] != null) {
+                results[i] = new NoteBatchResultDto(note.getId(), 400, rejected[i], null);
+                continue;
+            }
+
+            // Stored notes are managed, so they are written in JDBC batches on flush
+            Note existing = existingNotes.get(note.getId());
+            releasedBytes += Math.max(0, UsageLedgerService.storedBytes(existing) - UsageLedgerService.storedBytes(note));
+            existing.setHeader(note.getHeader());
+            existing.setContent(note.getContent());
+            existing.setEncryptionKey(note.getEncryptionKey());
+            existing.setIv(note.getIv());
+            existing.setSalt(note.getSalt());
+            existing.setFormatVersion(note.getFormatVersion());
+            existing.setModifiedAt(now);
+            updated = true;
+            NoteResponseDto plain = results[i].getNote();
+            searchTexts.put(note.getId(), searchText(plain.getHeader(), plain.getContent()));
+        }
+
+        if (releasedBytes > 0) {
+            noteRepository.flush();
+            usageLedger.release(owner, 0, releasedBytes);
+        }
+        else if (updated) {
+            usageLedger.markChanged(owner);
+        }
+        indexNotes(owner, dataKey, searchTexts);
+        listingCache.invalidate(owner);
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Deletes notes in one transaction, with a single batch of delete statements. Notes deleted
+     * by a concurrent request are reported as not found, so their space is only released once.
+     * @param owner user deleting the notes
+     * @param anyOwner true if notes of other users can be deleted (admin)
+     * @param ids ids of the notes to delete
+     * @return result of each note, in the same order as ids
+     */
+    @Transactional
+    public List<NoteBatchResultDto> deleteNotes(long owner, boolean anyOwner, List<Long> ids) {
+        Map<Long, Note> existingNotes = findAllById(ids);
+        Map<Long, Note> deletable = new LinkedHashMap<>();
+        List<NoteBatchResultDto> results = new ArrayList<>(ids.size());
+
+        for (Long id : ids) {
+            Note note = existingNotes.get(id);
+            if (note == null) {
+                results.add(new NoteBatchResultDto(id, 404, "Note was not found", null));
+            }
+            else if (!anyOwner && note.getOwner() != owner) {
+                results.add(new NoteBatchResultDto(id, 401, "Unauthorized delete!", null));
+            }
+            else {
+                deletable.put(id, note);
+                results.add(new NoteBatchResultDto(id, 200, null, null));
+            }
+        }
+
+        if (deletable.isEmpty()) {
+            return results;
+        }
+
+        Map<Long, Note> deleted = new LinkedHashMap<>();
+        for (Long id : noteRepository.deleteAndReturnIds(new ArrayList<>(deletable.keySet()))) {
+            deleted.put(id, deletable.get(id));
+        }
+        for (int i = 0; i < results.size(); i++) {
+            Long id = results.get(i).getId();
+            if (deletable.containsKey(id) && !deleted.containsKey(id)) {
+                results.set(i, new NoteBatchResultDto(id, 404, "Note was not found", null));
+            }
+        }
+        if (deleted.isEmpty()) {
+            return results;
+        }
+
+        tombstoneService.recordDeleted(deleted.values());
+        searchIndex.remove(deleted.keySet());
+        deleted.values().stream()
+            .collect(Collectors.groupingBy(Note::getOwner))
+            .forEach((noteOwner, notes) -> {
+                usageLedger.release(noteOwner, notes.size(), notes.stream().mapToLong(UsageLedgerService::storedBytes).sum());
+                listingCache.invalidate(noteOwner);
+            });
+        return results;
+    }
+
+    /**
+     * Reserves space for all notes of a batch with one update, or note by note if they don't all fit
+     * @param owner note owner
+     * @param notesPerItem number of notes added by each item
+     * @param bytes number of bytes added by each item
+     * @return for each item the limit it exceeded, null for items that were reserved
+     */
+    private String[] reserveAll(long owner, long notesPerItem, long[] bytes) {
+        // Nothing to reserve for notes that don't grow, even if the user is over the limits
+        String[] rejected = new String[bytes.length];
+        long totalBytes = Arrays.stream(bytes).sum();
+        if ((notesPerItem == 0 && totalBytes == 0) 
+                || usageLedger.reserve(owner, notesPerItem * bytes.length, totalBytes)) {
+            return rejected;
+        }
+
+        for (int i = 0; i < bytes.length; i++) {
+            if ((notesPerItem == 0 && bytes[i] == 0) || usageLedger.reserve(owner, notesPerItem, bytes[i])) {
+                continue;
+            }
+            rejected[i] = usageLedger.exceedsNoteLimit(owner, notesPerItem) ? NOTE_LIMIT_MESSAGE : STORAGE_LIMIT_MESSAGE;
+        }
+        return rejected;
+    }
+
+    /**
+     * Gets the data key of the user. Data key is shared by all notes of the user, so it's only
+     * unwrapped once per request.
+     * @return data key, null if the user has none or the key is wrong
+     */
+    private SecretKey getDataKeyOrNull(Long userId, String encKey) {
+        try {
+            return dataKeyService.getDataKey(userId, encKey);
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Copies a stored note for decryption. Stored notes are managed, so decrypting them in place
+     * would write the plain note back on the next flush of the persistence context.
+     * @param stored stored note
+     * @return unmanaged copy of the note
+     */
+    private static Note copyOf(Note stored) {
+        return Note.builder()
+            .id(stored.getId())
+            .owner(stored.getOwner())
+            .createdAt(stored.getCreatedAt())
+            .modifiedAt(stored.getModifiedAt())
+            .header(stored.getHeader())
+            .content(stored.getContent())
+            .encryptionKey(stored.getEncryptionKey())
+            .iv(stored.getIv())
+            .salt(stored.getSalt())
+            .formatVersion(stored.getFormatVersion())
+            .build();
+    }
+
+    private Map<Long, Note> findAllById(List<Long> ids) {
+        return noteRepository.findAllById(ids).stream()
+            .collect(Collectors.toMap(Note::getId, Function.identity()));
     }
 
     /**
@@ -198,22 +863,34 @@ public class NoteService {
     }
 
     /**
-     * Gets note details from the given note, attempts to decrypt header
-     * @param note Note to get details from
+     * Generates note details response from the given note header, header encrypted
+     * @param note Note header to get details from
+     * @return Note details with encrypted header
+     */
+    public NoteDetailsResponseDto createDetailsResponse(NoteHeaderView note) {
+        return new NoteDetailsResponseDto(
+            note.getId(),
+            note.getOwner(),
+            note.getCreatedAt(),
+            note.getModifiedAt(),
+            new String(note.getHeader())
+        );
+    }
+
+    /**
+     * Gets note details from the given note header, attempts to decrypt header
+     * @param note Note header to get details from
      * @param encKey Note encryption key provided by the user
+     * @param dataKey Data key of the note owner, null if the owner has none
      * @return Note details with decrypted header, if possible, encrypted if fails
      */
-    private NoteDetailsResponseDto createDetailsResponseDecrypted(Note note, String encKey) {
+    private NoteDetailsResponseDto createDetailsResponseDecrypted(NoteHeaderView note, String encKey, SecretKey dataKey) {
         try {
-            byte[] decodedIv = note.getIv();
-            byte[] salt = note.getSalt();
-            
-            IvParameterSpec iv = new IvParameterSpec(decodedIv);
-            SecretKey keyDecryptKey = EncryptionUtils.generateKeyFromPassword(encKey, salt);
-            byte[] fileKeyBytes = EncryptionUtils.decryptBytes(note.getEncryptionKey(), keyDecryptKey, iv);
-
-            SecretKey fileKey = EncryptionUtils.bytesToKey(fileKeyBytes);
-            byte[] decryptedHeader = EncryptionUtils.decryptBytes(note.getHeader(), fileKey, iv);
+            SecretKey fileKey = getFileKey(note.getFormatVersion(), note.getEncryptionKey(), 
+                note.getIv(), note.getSalt(), encKey, dataKey);
+            byte[] decryptedHeader = note.getFormatVersion() == Note.FORMAT_V3
+                ? openHeaderSeal(note.getHeader(), fileKey, note.getOwner(), note.getId())
+                : cryptoEngine.decrypt(note.getHeader(), fileKey, new IvParameterSpec(note.getIv()));
 
             return new NoteDetailsResponseDto(note.getId(), 
                 note.getOwner(), 
@@ -228,78 +905,148 @@ public class NoteService {
     }
 
     /**
-     * Encrypts the given note. 
-     * @param note plaintext note, with encryption key set
-     * @throws InvalidParameterException
-     * @throws NoSuchAlgorithmException
-     * @throws InvalidKeyException
-     * @throws NoSuchPaddingException
-     * @throws InvalidAlgorithmParameterException
-     * @throws IllegalBlockSizeException
-     * @throws BadPaddingException
-     * @throws InvalidKeySpecException
+     * Encrypts the given note. The header is sealed to the header column, so note listings can be
+     * decrypted without reading the content, and the content to a blob stored as the note content.
+     * Both are authenticated with the note owner and id, so they can't be moved to another note.
+     * @param note plaintext note
+     * @param id id of the note, allocated before encryption for new notes
+     * @param dataKey data key of the note owner
+     * @throws GeneralSecurityException
      */
-    private void encryptNote(Note note) throws 
-            InvalidParameterException, NoSuchAlgorithmException, 
-            InvalidKeyException, NoSuchPaddingException, 
-            InvalidAlgorithmParameterException, IllegalBlockSizeException, 
-            BadPaddingException, InvalidKeySpecException {
+    private void encryptNote(Note note, long id, SecretKey dataKey) throws GeneralSecurityException {
 
-        byte[] encKey = note.getEncryptionKey();
+        byte[] header = note.getHeader();
+        byte[] content = note.getContent();
 
-        // Encrypt file contents with a random file key
-        IvParameterSpec iv = EncryptionUtils.generateIv();
-        SecretKey fileKey = EncryptionUtils.generateKey(128);
-        byte[] encryptedHeader = EncryptionUtils.encryptToBytes(note.getHeader(), fileKey, iv);
-        byte[] encryptedBody = EncryptionUtils.encryptToBytes(note.getContent(), fileKey, iv);
-        
-        // Encrypt the file key with users encryption key
-        byte[] salt = EncryptionUtils.generateSaltBytes(16);
-        SecretKey keyEncryptionKey = EncryptionUtils.generateKeyFromPassword(new String(encKey), salt);
-        byte[] encryptedKey = EncryptionUtils.encryptToBytes(fileKey.getEncoded(), keyEncryptionKey, iv);
+        // Wrap a random file key with users data key
+        SecretKey fileKey = cryptoEngine.generateKey(FILE_KEY_SIZE);
+        byte[] wrappedKey = cryptoEngine.wrapKey(fileKey, dataKey);
+
+        // Seal the content with the blob layout fields as additional data. Content is compressed
+        // first if enabled and it saves enough, the layout flags tell readers.
+        byte[] nonce = cryptoEngine.generateNonce();
+        ByteBuffer blob;
+        byte[] storedContent = content;
+        if (compression) {
+            byte[] deflated = NoteCompression.deflate(content, compressionLevel, compressionMinSavedBytes);
+            storedContent = deflated != null ? deflated : content;
+            blob = NoteBlob.allocate(deflated != null ? NoteBlob.FLAG_DEFLATED : 0, nonce, 
+                storedContent.length, content.length);
+        }
+        else {
+            blob = NoteBlob.allocate(nonce, content.length);
+        }
+        byte[] aad = NoteBlob.additionalData(note.getOwner(), id, blob.array(), blob.position());
+        cryptoEngine.seal(fileKey, nonce, aad, blob, ByteBuffer.wrap(storedContent));
 
-        // Assign note content
-        note.setHeader(encryptedHeader);
-        note.setContent(encryptedBody);
-        note.setEncryptionKey(encryptedKey);
-        note.setSalt(salt);
-        note.setIv(iv.getIV());
+        // Assign note content, notes are always written in the latest format
+        note.setHeader(sealHeader(header, fileKey, note.getOwner(), id));
+        note.setContent(blob.array());
+        note.setEncryptionKey(wrappedKey);
+        note.setSalt(null);
+        note.setIv(null);
+        note.setFormatVersion(Note.FORMAT_V3);
     }
 
     /**
      * Decrypts the given note
      * @param note note data to decrypt
      * @param key decryption key
-     * @throws InvalidParameterException
-     * @throws NoSuchAlgorithmException
-     * @throws InvalidKeyException
-     * @throws NoSuchPaddingException
-     * @throws InvalidAlgorithmParameterException
-     * @throws IllegalBlockSizeException
-     * @throws BadPaddingException
-     * @throws InvalidKeySpecException
-     */
-    private void decryptNote(Note note, String key) throws 
-            InvalidParameterException, NoSuchAlgorithmException, 
-            InvalidKeyException, NoSuchPaddingException, 
-            InvalidAlgorithmParameterException, IllegalBlockSizeException, 
-            BadPaddingException, InvalidKeySpecException {
-            
-        // Generate file key decryption key
-        byte[] decodedIv = note.getIv();
-        byte[] salt = note.getSalt();
-        IvParameterSpec iv = new IvParameterSpec(decodedIv);
-        SecretKey keyDecryptKey = EncryptionUtils.generateKeyFromPassword(key, salt);
-        
-        // Get decrypted file key
-        byte[] fileKeyBytes = EncryptionUtils.decryptBytes(note.getEncryptionKey(), keyDecryptKey, iv);
-        SecretKey fileKey = EncryptionUtils.bytesToKey(fileKeyBytes);
-
-        // Decrypt file contents with file key
-        byte[] decryptedHeader = EncryptionUtils.decryptBytes(note.getHeader(), fileKey, iv);
-        byte[] decryptedContent = EncryptionUtils.decryptBytes(note.getContent(), fileKey, iv);
+     * @throws GeneralSecurityException
+     */
+    private void decryptNote(Note note, String key) throws GeneralSecurityException {
+        SecretKey dataKey = note.getFormatVersion() >= Note.FORMAT_V2 
+            ? dataKeyService.getDataKey(note.getOwner(), key) 
+            : null;
+
+        if (note.getFormatVersion() == Note.FORMAT_V3) {
+            SecretKey fileKey = getFileKey(note.getFormatVersion(), note.getEncryptionKey(), null, null, key, dataKey);
+            NoteBlob blob = NoteBlob.parse(note.getContent());
+
+            // Fails if the header or any part of the blob has been modified or belongs to another note
+            byte[] header = openHeaderSeal(note.getHeader(), fileKey, note.getOwner(), note.getId());
+            ByteBuffer plain = ByteBuffer.allocate(blob.getContentLength());
+            cryptoEngine.open(fileKey, blob.getNonce(), blob.additionalData(note.getOwner(), note.getId()), 
+                blob.ciphertext(), plain);
+
+            note.setHeader(header);
+            note.setContent(blob.isDeflated() 
+                ? NoteCompression.inflate(plain.array(), blob.getPlainContentLength()) 
+                : plain.array());
+            return;
+        }
+
+        // Legacy CBC formats, header and content encrypted separately with a shared IV
+        IvParameterSpec iv = new IvParameterSpec(note.getIv());
+        SecretKey fileKey = getFileKey(note.getFormatVersion(), note.getEncryptionKey(), 
+            note.getIv(), note.getSalt(), key, dataKey);
+
+        byte[] decryptedHeader = cryptoEngine.decrypt(note.getHeader(), fileKey, iv);
+        byte[] decryptedContent = cryptoEngine.decrypt(note.getContent(), fileKey, iv);
 
         note.setHeader(decryptedHeader);
         note.setContent(decryptedContent);
     }
+
+    /**
+     * Seals the header of a V3 note for the header column
+     * @param header plain header
+     * @param fileKey file key of the note
+     * @param owner note owner, authenticated with the header
+     * @param id note id, authenticated with the header
+     * @return nonce followed by the ciphertext and tag
+     * @throws GeneralSecurityException
+     */
+    private byte[] sealHeader(byte[] header, SecretKey fileKey, long owner, long id) throws GeneralSecurityException {
+        byte[] nonce = cryptoEngine.generateNonce();
+        ByteBuffer sealed = ByteBuffer.allocate(nonce.length + header.length + CryptoEngine.AEAD_TAG_SIZE);
+        sealed.put(nonce);
+        cryptoEngine.seal(fileKey, nonce, noteBytes(owner, id), sealed, ByteBuffer.wrap(header));
+        return sealed.array();
+    }
+
+    /**
+     * Opens a header sealed with sealHeader
+     * @param sealed nonce followed by the ciphertext and tag
+     * @param fileKey file key of the note
+     * @param owner note owner
+     * @param id note id
+     * @return plain header
+     * @throws GeneralSecurityException
+     */
+    private byte[] openHeaderSeal(byte[] sealed, SecretKey fileKey, long owner, long id) throws GeneralSecurityException {
+        byte[] nonce = Arrays.copyOf(sealed, CryptoEngine.AEAD_NONCE_SIZE);
+        byte[] ciphertext = Arrays.copyOfRange(sealed, nonce.length, sealed.length);
+        return cryptoEngine.open(ciphertext, fileKey, nonce, noteBytes(owner, id));
+    }
+
+    private static byte[] noteBytes(long owner, long id) {
+        return ByteBuffer.allocate(2 * Long.BYTES).putLong(owner).putLong(id).array();
+    }
+
+    /**
+     * Gets the file key of a note, based on the note format
+     * @param formatVersion note format version
+     * @param encryptedKey encrypted or wrapped file key of the note
+     * @param iv note initialization vector
+     * @param salt note salt, only used by V1 notes
+     * @param encKey users encryption key
+     * @param dataKey data key of the note owner, only needed for V2 and V3 notes
+     * @return decrypted file key
+     * @throws GeneralSecurityException
+     */
+    private SecretKey getFileKey(int formatVersion, byte[] encryptedKey, byte[] iv, byte[] salt, 
+            String encKey, SecretKey dataKey) throws GeneralSecurityException {
+        if (formatVersion >= Note.FORMAT_V2) {
+            if (dataKey == null) {
+                throw new InvalidKeyException("No data key available for note");
+            }
+            return cryptoEngine.unwrapKey(encryptedKey, dataKey);
+        }
+
+        // V1 notes have the file key encrypted with a key derived from the encryption key
+        SecretKey keyDecryptKey = keyCache.getKey(encKey, salt);
+        byte[] fileKeyBytes = cryptoEngine.decrypt(encryptedKey, keyDecryptKey, new IvParameterSpec(iv));
+        return cryptoEngine.bytesToKey(fileKeyBytes);
+    }
 }
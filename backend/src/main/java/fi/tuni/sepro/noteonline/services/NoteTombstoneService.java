@@ -0,0 +1,76 @@
+package fi.tuni.sepro.noteonline.services;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import fi.tuni.sepro.noteonline.models.Note;
+import fi.tuni.sepro.noteonline.repository.NoteTombstoneRepository;
+
+/**
+ * Keeps track of deleted notes for the change feed. Tombstones are kept for the retention period,
+ * clients with an older cursor must reload all notes.
+ */
+@Service
+public class NoteTombstoneService {
+
+    private final NoteTombstoneRepository tombstoneRepository;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${noteonline.app.tombstoneRetentionMs}")
+    private long retentionMs;
+
+    NoteTombstoneService(NoteTombstoneRepository tombstoneRepository, JdbcTemplate jdbcTemplate) {
+        this.tombstoneRepository = tombstoneRepository;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Records the given notes as deleted. Must be called inside the transaction deleting the notes.
+     * @param notes deleted notes
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordDeleted(Collection<Note> notes) {
+        // Inserted with plain JDBC, saving entities with assigned ids would select each one first
+        long now = System.currentTimeMillis();
+        jdbcTemplate.batchUpdate(
+            "INSERT INTO note_tombstones (note_id, owner, deleted_at) VALUES (?, ?, ?) ON CONFLICT DO NOTHING",
+            notes.stream().map(note -> new Object[] { note.getId(), note.getOwner(), now }).toList());
+    }
+
+    /**
+     * Gets ids of notes deleted at or after the given time
+     * @param owner note owner, null for notes of all users
+     * @param since deletion time
+     * @return ids of deleted notes
+     */
+    public List<Long> getDeletedSince(Long owner, long since) {
+        return owner == null
+            ? tombstoneRepository.findIdsDeletedSince(since)
+            : tombstoneRepository.findIdsByOwnerDeletedSince(owner, since);
+    }
+
+    /**
+     * Checks if tombstones after the given time may already be removed
+     * @param since time of the client cursor
+     * @return true if the client must reload all notes
+     */
+    public boolean isExpired(long since) {
+        return since < System.currentTimeMillis() - retentionMs;
+    }
+
+    /**
+     * Removes tombstones older than the retention period
+     */
+    @Scheduled(fixedDelayString = "${noteonline.app.tombstonePurgeIntervalMs}")
+    @Transactional
+    public void purgeExpired() {
+        tombstoneRepository.deleteOlderThan(System.currentTimeMillis() - retentionMs);
+    }
+}
@@ -0,0 +1,125 @@
+package fi.tuni.sepro.noteonline.services;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Cache for authenticated users, so requests with a valid JWT do not need to load the user from
+ * the database. Entries must be invalidated whenever data in UserDetailsImpl changes, such as the
+ * session token or roles. Login attempt store invalidates users whose lock changes, and logout
+ * invalidates the logged out user. Other changes are seen once the entry expires.
+ */
+@Service
+public class PrincipalCache {
+
+    private final int maxEntries;
+    private final long ttlMs;
+
+    // Access ordered, so the first entry is always the least recently used one
+    private final LinkedHashMap<String, CachedPrincipal> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Incremented on every invalidation, a user loaded before an invalidation is not cached
+    private long generation;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    PrincipalCache(
+        @Value("${noteonline.app.principalCacheMaxEntries}") int maxEntries,
+        @Value("${noteonline.app.principalCacheTtlMs}") long ttlMs,
+        MeterRegistry meterRegistry) {
+
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMs;
+        this.hits = Counter.builder("noteonline.principal.cache.requests").tag("result", "hit")
+            .description("Authenticated user lookups").register(meterRegistry);
+        this.misses = Counter.builder("noteonline.principal.cache.requests").tag("result", "miss")
+            .description("Authenticated user lookups").register(meterRegistry);
+        this.evictions = Counter.builder("noteonline.principal.cache.evictions")
+            .description("Users removed from the cache because of size or age").register(meterRegistry);
+        Gauge.builder("noteonline.principal.cache.size", this, cache -> cache.size())
+            .description("Number of cached users").register(meterRegistry);
+    }
+
+    /**
+     * Gets the user with the given email, loading it if it's not cached
+     * @param email user email
+     * @param loader loads the user from the database
+     * @return user details
+     */
+    public UserDetailsImpl get(String email, Function<String, UserDetailsImpl> loader) {
+        long now = System.currentTimeMillis();
+        long loadGeneration;
+
+        synchronized (entries) {
+            CachedPrincipal cached = entries.get(email);
+            if (cached != null) {
+                if (cached.expiresAt > now) {
+                    hits.increment();
+                    return cached.user;
+                }
+                entries.remove(email);
+                evictions.increment();
+            }
+            loadGeneration = generation;
+        }
+
+        misses.increment();
+        UserDetailsImpl user = loader.apply(email);
+
+        synchronized (entries) {
+            // Skip caching if the user changed while it was loaded
+            if (loadGeneration == generation) {
+                entries.put(email, new CachedPrincipal(user, now + ttlMs));
+                trimToSize();
+            }
+        }
+
+        return user;
+    }
+
+    /**
+     * Removes the user with the given email. Must be called after the user is changed.
+     * @param email user email
+     */
+    public void invalidate(String email) {
+        synchronized (entries) {
+            generation++;
+            entries.remove(email);
+        }
+    }
+
+    private int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<CachedPrincipal> iterator = entries.values().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    private static class CachedPrincipal {
+        private final UserDetailsImpl user;
+        private final long expiresAt;
+
+        CachedPrincipal(UserDetailsImpl user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package fi.tuni.sepro.noteonline.services;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Stores the session (CSRF) token of each user. Users have one session at a time, a new login
+ * replaces the previous session.
+ *
+ * Implementation is selected with noteonline.app.sessionStore, see InMemorySessionStore and JdbcSessionStore.
+ */
+public interface SessionStore {
+
+    /**
+     * Stores a session for the user, replacing any previous session
+     * @param userId user id
+     * @param token session token
+     * @param expiresAt time in ms when the session expires
+     */
+    void put(long userId, String token, long expiresAt);
+
+    /**
+     * Gets the session of the user
+     * @param userId user id
+     * @return the session, or null if the user has no session or it has expired
+     */
+    Session get(long userId);
+
+    /**
+     * Removes the session of the user
+     * @param userId user id
+     */
+    void remove(long userId);
+
+    /**
+     * Checks that the given token matches the users session
+     * @param userId user id
+     * @param token session token provided by the user
+     * @return true, if the user has a session with the given token
+     */
+    default boolean isValid(long userId, String token) {
+        Session session = get(userId);
+        if (session == null || token == null) {
+            return false;
+        }
+
+        // Constant time comparison, so the token can't be guessed from response times
+        return MessageDigest.isEqual(session.getToken().getBytes(StandardCharsets.UTF_8), 
+            token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static class Session {
+        private final String token;
+        private final long expiresAt;
+
+        public Session(String token, long expiresAt) {
+            this.token = token;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getToken() {
+            return token;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+}
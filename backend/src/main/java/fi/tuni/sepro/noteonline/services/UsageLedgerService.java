@@ -0,0 +1,162 @@
+package fi.tuni.sepro.noteonline.services;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import fi.tuni.sepro.noteonline.dto.StorageStatsDto;
+import fi.tuni.sepro.noteonline.dto.UserStorageDto;
+import fi.tuni.sepro.noteonline.models.Note;
+import fi.tuni.sepro.noteonline.repository.UserUsageRepository;
+
+/**
+ * Keeps track of the number of notes and stored bytes per user. Limits are enforced with a single
+ * conditional update, so concurrent requests cannot exceed them. Must be called inside the same
+ * transaction that writes the notes.
+ */
+@Service
+public class UsageLedgerService {
+
+    private final UserUsageRepository usageRepository;
+
+    @Value("${noteonline.app.maxNotesPerUser}")
+    private int maxNotesPerUser;
+
+    @Value("${noteonline.app.maxNoteBytesPerUser}")
+    private long maxNoteBytesPerUser;
+
+    UsageLedgerService(UserUsageRepository usageRepository) {
+        this.usageRepository = usageRepository;
+    }
+
+    /**
+     * Reserves space for new notes or for growing existing ones
+     * @param owner note owner
+     * @param notes number of notes added
+     * @param bytes number of bytes added
+     * @return true if the space was reserved, false if the user limits would be exceeded
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public boolean reserve(long owner, long notes, long bytes) {
+        long now = System.currentTimeMillis();
+        if (usageRepository.reserve(owner, notes, bytes, maxNotesPerUser, maxNoteBytesPerUser, now) > 0) {
+            return true;
+        }
+
+        // Users with notes from before the ledger existed don't have a row yet. Reserving is retried
+        // even if nothing was inserted, a concurrent request may have created the row first.
+        // The row is seeded from the stored notes, so notes being changed must not be modified
+        // (dirty) before this call, they would be flushed and counted twice.
+        usageRepository.initialize(owner);
+        return usageRepository.reserve(owner, notes, bytes, maxNotesPerUser, maxNoteBytesPerUser, now) > 0;
+    }
+
+    /**
+     * Tells if a failed reservation was over the note count limit. Otherwise it was over the byte limit.
+     * @param owner note owner
+     * @param notes number of notes that were added
+     * @return true if the notes don't fit the note count limit
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public boolean exceedsNoteLimit(long owner, long notes) {
+        return usageRepository.findNoteCount(owner).map(count -> count + notes > maxNotesPerUser).orElse(false);
+    }
+
+    /**
+     * Releases space of deleted notes or shrunk notes. Notes must already be deleted or updated.
+     * @param owner note owner
+     * @param notes number of notes removed
+     * @param bytes number of bytes removed
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void release(long owner, long notes, long bytes) {
+        if (usageRepository.release(owner, notes, bytes, System.currentTimeMillis()) == 0) {
+            // Row is created from the current notes, which already reflect the change
+            usageRepository.initialize(owner);
+        }
+    }
+
+    /**
+     * Marks notes of the owner changed without reserving or releasing space
+     * @param owner note owner
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void markChanged(long owner) {
+        usageRepository.incrementVersion(owner, System.currentTimeMillis());
+    }
+
+    /**
+     * Gets the version of the owners notes, which changes whenever a note is created, updated or deleted
+     * @param owner note owner
+     * @return list version, null if the owner has no usage row yet
+     */
+    public Long getListVersion(long owner) {
+        return usageRepository.findListVersion(owner).orElse(null);
+    }
+
+    /**
+     * Creates usage rows for users who have not written notes since the ledger was added, so
+     * storage statistics include them. Rows of other users are created on their first write.
+     * @return number of created rows
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public int initializeMissingUsage() {
+        return usageRepository.initializeAll();
+    }
+
+    /**
+     * Gets storage totals of all users and the users with the most stored bytes. Calculated from
+     * the ledger in one pass, keeping only the current top users in memory. Users without notes
+     * and without a usage row are not included.
+     * @param top number of top users to return
+     * @return storage statistics
+     */
+    @Transactional(readOnly = true)
+    public StorageStatsDto getStorageStats(int top) {
+        // Smallest of the current top users first, so it's the one replaced
+        Comparator<UserStorageDto> bySize = Comparator.comparingLong(UserStorageDto::getStoredBytes)
+            .thenComparing(Comparator.comparingLong(UserStorageDto::getOwner).reversed());
+        PriorityQueue<UserStorageDto> topUsers = new PriorityQueue<>(top + 1, bySize);
+        StorageStatsDto stats = new StorageStatsDto();
+
+        try (Stream<UserStorageDto> usages = usageRepository.streamAllStorage()) {
+            usages.forEach(usage -> {
+                stats.setUsers(stats.getUsers() + 1);
+                stats.setNoteCount(stats.getNoteCount() + usage.getNoteCount());
+                stats.setStoredBytes(stats.getStoredBytes() + usage.getStoredBytes());
+                stats.setLastActivityAt(Math.max(stats.getLastActivityAt(), usage.getLastActivityAt()));
+
+                if (top > 0 && (topUsers.size() < top || bySize.compare(usage, topUsers.peek()) > 0)) {
+                    topUsers.add(usage);
+                    if (topUsers.size() > top) {
+                        topUsers.poll();
+                    }
+                }
+            });
+        }
+
+        List<UserStorageDto> sorted = new ArrayList<>(topUsers);
+        sorted.sort(bySize.reversed());
+        stats.setTopUsers(sorted);
+        return stats;
+    }
+
+    /**
+     * Gets the number of bytes a note takes in the ledger
+     * @param note encrypted note
+     * @return size of encrypted header and content
+     */
+    public static long storedBytes(Note note) {
+        return note.getHeader().length + note.getContent().length;
+    }
+}
@@ -21,16 +21,13 @@ public class UserDetailsImpl implements UserDetails {
     @JsonIgnore
     private String password;
 
-    private String sessionToken;
-
     private Collection<? extends GrantedAuthority> authorities;
 
-    public UserDetailsImpl(long id, String email, String password, String sessionToken, Collection<? extends GrantedAuthority> authorities) {
+    public UserDetailsImpl(long id, String email, String password, Collection<? extends GrantedAuthority> authorities) {
         this.id = id;
         this.email = email;
         this.password = password;
         this.authorities = authorities;
-        this.sessionToken = sessionToken;
     }
 
     public static UserDetailsImpl build(User user) {
@@ -42,7 +39,6 @@ public class UserDetailsImpl implements UserDetails {
             user.getId(), 
             user.getEmail(), 
             user.getPassword(), 
-            user.getSessionToken(),
             authorities);
     }
 
@@ -55,10 +51,6 @@ public class UserDetailsImpl implements UserDetails {
         return id;
     }
 
-    public String getSessionToken() {
-        return sessionToken;
-    }
-
     @Override
     public String getPassword() {
         return password;
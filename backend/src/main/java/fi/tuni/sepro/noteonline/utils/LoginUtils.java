@@ -11,6 +11,9 @@ import org.springframework.http.ResponseCookie;
 
 import fi.tuni.sepro.noteonline.dto.AuthDto;
 import fi.tuni.sepro.noteonline.models.User;
+import fi.tuni.sepro.noteonline.services.CryptoEngine;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 
 public class LoginUtils {
 
@@ -26,7 +29,14 @@ public class LoginUtils {
     private static final int A2_PARALLELISM = 1;
     private static final int A2_MEMORY = 1 << 14;
     private static final int A2_ITERATIONS = 2;
-    
+
+    // Memory used by a single Argon2 hash
+    public static final long ARGON2_MEMORY_BYTES = A2_MEMORY * 1024L;
+
+    // Hashing times, in the global registry since this class is not managed by Spring
+    private static final Timer LOGIN_HASH_TIMER = hashTimer("login");
+    private static final Timer NEW_HASH_TIMER = hashTimer("register");
+
 
     /**
      * Checks if the given password enforces good password practices
@@ -85,7 +95,8 @@ public class LoginUtils {
         Argon2BytesGenerator verifier = new Argon2BytesGenerator();
         verifier.init(builder.build());
         byte[] result = new byte[A2_HASH_LENGTH];
-        verifier.generateBytes(pass.getBytes(StandardCharsets.UTF_8), result, 0, result.length);
+        LOGIN_HASH_TIMER.record(() ->
+            verifier.generateBytes(pass.getBytes(StandardCharsets.UTF_8), result, 0, result.length));
 
         String resultString = Base64.getEncoder().encodeToString(result);
         return new AuthDto(resultString, user.getSalt());
@@ -93,11 +104,12 @@ public class LoginUtils {
 
     /**
      * Generate encryption key for a new user, based on the password
+     * @param cryptoEngine engine used for generating the salt
      * @param pass The password for generating the hash (plain text)
      * @return Base64 encoded hash with salt
      */
-    public static AuthDto generateNewHash(String pass) {
-        byte[] salt = EncryptionUtils.generateSaltBytes(A2_SALT_LENGTH);
+    public static AuthDto generateNewHash(CryptoEngine cryptoEngine, String pass) {
+        byte[] salt = cryptoEngine.randomBytes(A2_SALT_LENGTH);
 
         Argon2Parameters.Builder builder = new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
             .withVersion(Argon2Parameters.ARGON2_VERSION_13)
@@ -109,7 +121,8 @@ public class LoginUtils {
         Argon2BytesGenerator generator = new Argon2BytesGenerator();
         generator.init(builder.build());
         byte[] result = new byte[A2_HASH_LENGTH];
-        generator.generateBytes(pass.getBytes(StandardCharsets.UTF_8), result, 0, result.length);
+        NEW_HASH_TIMER.record(() ->
+            generator.generateBytes(pass.getBytes(StandardCharsets.UTF_8), result, 0, result.length));
 
         String resultString = Base64.getEncoder().encodeToString(result);
         String saltString = Base64.getEncoder().encodeToString(salt);
@@ -118,10 +131,11 @@ public class LoginUtils {
 
     /**
      * Generates a crypto-random session token in Base64 string format
+     * @param cryptoEngine engine used for generating the token
      * @return Base64 string
      */
-    public static String generateSessionToken() {
-        return Base64.getEncoder().encodeToString(EncryptionUtils.generateSaltBytes(32));
+    public static String generateSessionToken(CryptoEngine cryptoEngine) {
+        return Base64.getEncoder().encodeToString(cryptoEngine.randomBytes(32));
     }
 
     /**
@@ -170,4 +184,12 @@ public class LoginUtils {
 
         return cookie;
     }
+
+    private static Timer hashTimer(String operation) {
+        return Timer.builder("noteonline.password.hash")
+            .tag("algorithm", "argon2")
+            .tag("operation", operation)
+            .description("Password hashing")
+            .register(Metrics.globalRegistry);
+    }
 }
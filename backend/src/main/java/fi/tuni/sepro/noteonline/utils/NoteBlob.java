@@ -0,0 +1,181 @@
+package fi.tuni.sepro.noteonline.utils;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import fi.tuni.sepro.noteonline.services.CryptoEngine;
+
+/**
+ * Binary layout of the content of V3 notes. Layout V1:
+ *
+ * | layout version (1) | nonce (12) | ciphertext | tag (16) |
+ *
+ * Layout V2 has flags after the layout version. If the content is compressed, the length of the
+ * plain content follows the nonce:
+ *
+ * | layout version (1) | flags (1) | nonce (12) | content length (4), if compressed | ciphertext | tag (16) |
+ *
+ * The ciphertext is the note content encrypted with AES-GCM. The header and the wrapped file key
+ * are stored in their own columns, so listings can read them without the content. Everything
+ * before the ciphertext is authenticated together with the note owner and id, so a modified
+ * layout field or a blob moved to another note fails decryption.
+ */
+public class NoteBlob {
+
+    public static final byte LAYOUT_V1 = 1;
+    public static final byte LAYOUT_V2 = 2;
+
+    // Layout V2 flags, content is compressed with NoteCompression
+    public static final byte FLAG_DEFLATED = 1;
+    private static final byte KNOWN_FLAGS = FLAG_DEFLATED;
+
+    private static final int NONCE_SIZE = CryptoEngine.AEAD_NONCE_SIZE;
+    private static final int TAG_SIZE = CryptoEngine.AEAD_TAG_SIZE;
+
+    private final byte[] blob;
+    private final byte[] nonce;
+    private final int prefixLength;
+    private final byte flags;
+    private final int plainContentLength;
+
+    private NoteBlob(byte[] blob, byte[] nonce, int prefixLength, byte flags, int plainContentLength) {
+        this.blob = blob;
+        this.nonce = nonce;
+        this.prefixLength = prefixLength;
+        this.flags = flags;
+        this.plainContentLength = plainContentLength;
+    }
+
+    /**
+     * Allocates a blob and writes everything before the ciphertext
+     * @param nonce nonce used for encryption
+     * @param contentLength length of the plain content
+     * @return buffer backed by the blob, positioned at the start of the ciphertext
+     */
+    public static ByteBuffer allocate(byte[] nonce, int contentLength) {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + NONCE_SIZE + contentLength + TAG_SIZE);
+        buffer.put(LAYOUT_V1)
+            .put(nonce);
+        return buffer;
+    }
+
+    /**
+     * Allocates a layout V2 blob and writes everything before the ciphertext
+     * @param flags layout flags
+     * @param nonce nonce used for encryption
+     * @param contentLength length of the content as encrypted, compressed if FLAG_DEFLATED is set
+     * @param plainContentLength length of the content before compression
+     * @return buffer backed by the blob, positioned at the start of the ciphertext
+     */
+    public static ByteBuffer allocate(byte flags, byte[] nonce, int contentLength, int plainContentLength) {
+        boolean deflated = (flags & FLAG_DEFLATED) != 0;
+        int prefixLength = 2 + NONCE_SIZE + (deflated ? Integer.BYTES : 0);
+        ByteBuffer buffer = ByteBuffer.allocate(prefixLength + contentLength + TAG_SIZE);
+        buffer.put(LAYOUT_V2)
+            .put(flags)
+            .put(nonce);
+        if (deflated) {
+            buffer.putInt(plainContentLength);
+        }
+        return buffer;
+    }
+
+    /**
+     * Parses the given blob. The content is not decrypted or verified.
+     * @param blob stored blob
+     * @return parsed blob
+     * @throws IllegalArgumentException blob is not in a known layout
+     */
+    public static NoteBlob parse(byte[] blob) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(blob);
+            byte layoutVersion = buffer.get();
+            if (layoutVersion != LAYOUT_V1 && layoutVersion != LAYOUT_V2) {
+                throw new IllegalArgumentException("Unknown note layout: " + layoutVersion);
+            }
+
+            byte flags = layoutVersion == LAYOUT_V2 ? buffer.get() : 0;
+            if ((flags & ~KNOWN_FLAGS) != 0) {
+                throw new IllegalArgumentException("Unknown note layout flags: " + flags);
+            }
+
+            byte[] nonce = new byte[NONCE_SIZE];
+            buffer.get(nonce);
+            boolean deflated = (flags & FLAG_DEFLATED) != 0;
+            int plainContentLength = deflated ? buffer.getInt() : 0;
+
+            if (buffer.remaining() < TAG_SIZE) {
+                throw new IllegalArgumentException("Note blob is truncated");
+            }
+            int contentLength = buffer.remaining() - TAG_SIZE;
+            if (!deflated) {
+                plainContentLength = contentLength;
+            }
+            else if (plainContentLength < 0 || plainContentLength > NoteCompression.maxInflatedLength(contentLength)) {
+                throw new IllegalArgumentException("Invalid note content length");
+            }
+            return new NoteBlob(blob, nonce, buffer.position(), flags, plainContentLength);
+        }
+        catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Note blob is truncated");
+        }
+    }
+
+    /**
+     * Creates the additional authenticated data of a blob
+     * @param owner note owner
+     * @param id note id
+     * @param blob blob, at least up to the ciphertext
+     * @param prefixLength length of the blob before the ciphertext
+     * @return owner and id followed by the blob prefix
+     */
+    public static byte[] additionalData(long owner, long id, byte[] blob, int prefixLength) {
+        return ByteBuffer.allocate(2 * Long.BYTES + prefixLength)
+            .putLong(owner)
+            .putLong(id)
+            .put(blob, 0, prefixLength)
+            .array();
+    }
+
+    public byte[] getNonce() {
+        return nonce;
+    }
+
+    /**
+     * Gets the length of the content in the ciphertext
+     * @return content length, compressed length if the content is deflated
+     */
+    public int getContentLength() {
+        return blob.length - prefixLength - TAG_SIZE;
+    }
+
+    /**
+     * Gets the length of the content after decryption and decompression
+     * @return plain content length
+     */
+    public int getPlainContentLength() {
+        return plainContentLength;
+    }
+
+    public boolean isDeflated() {
+        return (flags & FLAG_DEFLATED) != 0;
+    }
+
+    /**
+     * Gets the additional authenticated data of this blob
+     * @param owner note owner
+     * @param id note id
+     * @return owner and id followed by the blob prefix
+     */
+    public byte[] additionalData(long owner, long id) {
+        return additionalData(owner, id, blob, prefixLength);
+    }
+
+    /**
+     * Gets the ciphertext and tag
+     * @return view of the ciphertext, backed by the blob
+     */
+    public ByteBuffer ciphertext() {
+        return ByteBuffer.wrap(blob, prefixLength, blob.length - prefixLength).slice();
+    }
+}
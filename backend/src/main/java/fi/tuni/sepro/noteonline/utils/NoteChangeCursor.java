@@ -0,0 +1,79 @@
+package fi.tuni.sepro.noteonline.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position in the change feed of notes. Changes are listed oldest first by modification time,
+ * with note id breaking ties. Clients only see the encoded form.
+ */
+public class NoteChangeCursor {
+
+    private static final String PREFIX = "CHANGES";
+
+    private final long timestamp;
+    private final long id;
+
+    private NoteChangeCursor(long timestamp, long id) {
+        this.timestamp = timestamp;
+        this.id = id;
+    }
+
+    /**
+     * Cursor pointing before all notes, the first sync returns every note
+     * @return cursor for the first sync
+     */
+    public static NoteChangeCursor first() {
+        return new NoteChangeCursor(0, 0);
+    }
+
+    /**
+     * Cursor pointing after the given note
+     * @param timestamp modification time of the last note returned
+     * @param id id of the last note returned
+     * @return cursor for the next changes
+     */
+    public static NoteChangeCursor after(long timestamp, long id) {
+        return new NoteChangeCursor(timestamp, id);
+    }
+
+    /**
+     * Decodes a cursor received from the client
+     * @param cursor encoded cursor, blank for the first sync
+     * @return decoded cursor
+     * @throws IllegalArgumentException cursor is malformed
+     */
+    public static NoteChangeCursor decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return first();
+        }
+
+        String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+        if (parts.length != 3 || !parts[0].equals(PREFIX)) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+
+        return new NoteChangeCursor(Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+    }
+
+    /**
+     * Encodes the cursor for the client
+     * @return opaque cursor string
+     */
+    public String encode() {
+        String value = PREFIX + ":" + timestamp + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public boolean isFirst() {
+        return timestamp == 0 && id == 0;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getId() {
+        return id;
+    }
+}
@@ -0,0 +1,92 @@
+package fi.tuni.sepro.noteonline.utils;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of note content before encryption, ciphertext itself does not compress.
+ * Uses raw deflate, the content is authenticated by encryption so no checksum is needed.
+ */
+public class NoteCompression {
+
+    // Deflate can't compress better than about 1032:1
+    private static final int MAX_RATIO = 1032;
+
+    /**
+     * Compresses the given data, if it gets smaller
+     * @param data data to compress
+     * @param level deflate level, 1 (fastest) to 9 (smallest)
+     * @param minSavedBytes number of bytes compression must save
+     * @return compressed data, null if it would not save enough
+     */
+    public static byte[] deflate(byte[] data, int level, int minSavedBytes) {
+        int maxLength = data.length - minSavedBytes;
+        if (maxLength <= 0) {
+            return null;
+        }
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+
+            // Output is limited to the size that pays off, so incompressible data is given up early
+            byte[] output = new byte[maxLength];
+            int length = 0;
+            while (!deflater.finished() && length < maxLength) {
+                length += deflater.deflate(output, length, maxLength - length);
+            }
+            return deflater.finished() ? Arrays.copyOf(output, length) : null;
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompresses data compressed with deflate
+     * @param data compressed data
+     * @param length length of the data before compression
+     * @return decompressed data
+     * @throws IllegalArgumentException data is corrupted or its length does not match
+     */
+    public static byte[] inflate(byte[] data, int length) {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+
+            // One extra byte, so data longer than expected is detected
+            byte[] output = new byte[length + 1];
+            int inflated = 0;
+            while (!inflater.finished() && inflated < output.length) {
+                int count = inflater.inflate(output, inflated, output.length - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+
+            if (!inflater.finished() || inflated != length) {
+                throw new IllegalArgumentException("Invalid compressed note content");
+            }
+            return Arrays.copyOf(output, length);
+        }
+        catch (DataFormatException e) {
+            throw new IllegalArgumentException("Invalid compressed note content");
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Gets the largest length compressed data can inflate to
+     * @param compressedLength length of compressed data
+     * @return maximum length after decompression
+     */
+    public static long maxInflatedLength(int compressedLength) {
+        return (long)compressedLength * MAX_RATIO;
+    }
+}
@@ -0,0 +1,98 @@
+package fi.tuni.sepro.noteonline.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Locale;
+
+/**
+ * Position in a note listing, used for keyset pagination. Notes are listed newest first by
+ * the sort timestamp, with note id breaking ties. Clients only see the encoded form.
+ */
+public class NoteCursor {
+
+    public enum Sort {
+        MODIFIED,
+        CREATED
+    }
+
+    private final Sort sort;
+    private final long timestamp;
+    private final long id;
+
+    private NoteCursor(Sort sort, long timestamp, long id) {
+        this.sort = sort;
+        this.timestamp = timestamp;
+        this.id = id;
+    }
+
+    /**
+     * Cursor pointing before the first note
+     * @param sort sort order of the listing
+     * @return cursor for the first page
+     */
+    public static NoteCursor first(Sort sort) {
+        return new NoteCursor(sort, Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Cursor pointing after the given note
+     * @param sort sort order of the listing
+     * @param timestamp sort timestamp of the last note on the page
+     * @param id id of the last note on the page
+     * @return cursor for the next page
+     */
+    public static NoteCursor after(Sort sort, long timestamp, long id) {
+        return new NoteCursor(sort, timestamp, id);
+    }
+
+    /**
+     * Parses sort order from request parameter
+     * @param sort "modified" or "created"
+     * @return sort order
+     * @throws IllegalArgumentException unknown sort order
+     */
+    public static Sort parseSort(String sort) {
+        return Sort.valueOf(sort.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Decodes a cursor received from the client
+     * @param cursor encoded cursor, blank for the first page
+     * @param sort sort order of the listing, must match the cursor
+     * @return decoded cursor
+     * @throws IllegalArgumentException cursor is malformed or for another sort order
+     */
+    public static NoteCursor decode(String cursor, Sort sort) {
+        if (cursor == null || cursor.isBlank()) {
+            return first(sort);
+        }
+
+        String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+        if (parts.length != 3 || !parts[0].equals(sort.name())) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+
+        return new NoteCursor(sort, Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+    }
+
+    /**
+     * Encodes the cursor for the client
+     * @return opaque cursor string
+     */
+    public String encode() {
+        String value = sort.name() + ":" + timestamp + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Sort getSort() {
+        return sort;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getId() {
+        return id;
+    }
+}
@@ -0,0 +1,16 @@
+CREATE TABLE IF NOT EXISTS user_sessions (
+    user_id BIGINT PRIMARY KEY,
+    token VARCHAR(64) NOT NULL,
+    expires_at BIGINT NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_user_sessions_expires ON user_sessions (expires_at);
+
+CREATE TABLE IF NOT EXISTS note_search_tokens (
+    owner BIGINT NOT NULL,
+    token BYTEA NOT NULL,
+    note_id BIGINT NOT NULL,
+    PRIMARY KEY (owner, token, note_id)
+);
+
+CREATE INDEX IF NOT EXISTS idx_note_search_tokens_note ON note_search_tokens (note_id);
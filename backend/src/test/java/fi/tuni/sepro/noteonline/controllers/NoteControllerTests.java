@@ -0,0 +1,292 @@
+package fi.tuni.sepro.noteonline.controllers;
+
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.annotation.Transactional;
+
+import fi.tuni.sepro.noteonline.dto.NoteBatchResultDto;
+import fi.tuni.sepro.noteonline.models.ERole;
+import fi.tuni.sepro.noteonline.models.Note;
+import fi.tuni.sepro.noteonline.models.User;
+import fi.tuni.sepro.noteonline.repository.UserRepository;
+import fi.tuni.sepro.noteonline.services.NoteService;
+import fi.tuni.sepro.noteonline.services.SessionStore;
+import fi.tuni.sepro.noteonline.services.UserDetailsImpl;
+import fi.tuni.sepro.noteonline.utils.NoteChangeCursor;
+import jakarta.servlet.http.Cookie;
+
+@SpringBootTest(properties = "noteonline.app.notePageSize=5")
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+@Transactional
+class NoteControllerTests {
+
+    private static final String ENC_KEY = "encryption-key";
+    private static final int NOTE_COUNT = 8;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private NoteService noteService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private SessionStore sessionStore;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${noteonline.app.maxNoteBytesPerUser}")
+    private long maxBytes;
+
+    @Value("${noteonline.app.tombstoneRetentionMs}")
+    private long tombstoneRetentionMs;
+
+    private UserDetailsImpl owner;
+    private UserDetailsImpl admin;
+    private List<Long> noteIds;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        User user = userRepository.save(User.builder().email("user@example.com").password("password").salt("salt").build());
+        owner = new UserDetailsImpl(user.getId(), user.getEmail(), user.getPassword(),
+            List.of(new SimpleGrantedAuthority(ERole.ROLE_USER.name())));
+        admin = new UserDetailsImpl(user.getId() + 1, "admin@example.com", "password",
+            List.of(new SimpleGrantedAuthority(ERole.ROLE_ADMIN.name())));
+
+        List<Note> notes = new ArrayList<>();
+        for (int i = 0; i < NOTE_COUNT; i++) {
+            notes.add(plainNote("header " + i, "content " + i));
+        }
+        noteIds = noteService.createNotes(user.getId(), notes, ENC_KEY).stream().map(NoteBatchResultDto::getId).toList();
+    }
+
+    @Test
+    void listingWithoutCursorOrSizeReturnsAllNotes() throws Exception {
+        mockMvc.perform(get("/api/notes").cookie(encKeyCookie()).with(user(owner)))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.length()").value(NOTE_COUNT))
+            .andExpect(jsonPath("$[0].header").value("header " + (NOTE_COUNT - 1)))
+            .andExpect(header().doesNotExist(NoteController.NEXT_CURSOR_HEADER));
+    }
+
+    @Test
+    void adminListingWithoutCursorOrSizeReturnsAllNotes() throws Exception {
+        mockMvc.perform(get("/api/notes").with(user(admin)))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.length()").value(NOTE_COUNT))
+            .andExpect(header().doesNotExist(NoteController.NEXT_CURSOR_HEADER));
+    }
+
+    @Test
+    void listingWithSizeReturnsPageAndCursor() throws Exception {
+        String cursor = mockMvc.perform(get("/api/notes?size=3").cookie(encKeyCookie()).with(user(owner)))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.length()").value(3))
+            .andExpect(header().exists(NoteController.NEXT_CURSOR_HEADER))
+            .andReturn().getResponse().getHeader(NoteController.NEXT_CURSOR_HEADER);
+
+        // A cursor without a size uses the default page size
+        mockMvc.perform(get("/api/notes").param("cursor", cursor).cookie(encKeyCookie()).with(user(owner)))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.length()").value(NOTE_COUNT - 3))
+            .andExpect(header().doesNotExist(NoteController.NEXT_CURSOR_HEADER));
+    }
+
+    @Test
+    void changesWithExpiredCursorAreGone() throws Exception {
+        String expired = NoteChangeCursor.after(System.currentTimeMillis() - tombstoneRetentionMs - 1000, 0).encode();
+
+        mockMvc.perform(get("/api/notes/changes").param("since", expired).cookie(encKeyCookie()).with(user(owner)))
+            .andExpect(status().isGone());
+        mockMvc.perform(get("/api/notes/changes").param("since", expired).with(user(admin)))
+            .andExpect(status().isGone());
+    }
+
+    @Test
+    void changesWithoutCursorReturnAllNotes() throws Exception {
+        mockMvc.perform(get("/api/notes/changes").cookie(encKeyCookie()).with(user(owner)))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.notes.length()").value(5))
+            .andExpect(jsonPath("$.deleted.length()").value(0))
+            .andExpect(jsonPath("$.hasMore").value(true));
+    }
+
+    @Test
+    void noteWithMatchingETagIsNotModified() throws Exception {
+        String etag = noteETag(noteIds.get(0), owner);
+
+        mockMvc.perform(get("/api/notes/" + noteIds.get(0)).header(HttpHeaders.IF_NONE_MATCH, etag)
+                .cookie(encKeyCookie()).with(user(owner)))
+            .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void noteGetsNewETagAfterUpdate() throws Exception {
+        long id = noteIds.get(0);
+        String etag = noteETag(id, owner);
+
+        waitForClockTick(noteService.getNoteVersion(id).getModifiedAt());
+        noteService.updateNote(id, plainNote("updated", "updated", ENC_KEY));
+
+        String updated = mockMvc.perform(get("/api/notes/" + id).header(HttpHeaders.IF_NONE_MATCH, etag)
+                .cookie(encKeyCookie()).with(user(owner)))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.header").value("updated"))
+            .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotEquals(etag, updated);
+    }
+
+    @Test
+    void encryptedNoteHasSeparateETag() throws Exception {
+        long id = noteIds.get(0);
+        String plainETag = noteETag(id, owner);
+        String encryptedETag = noteETag(id, admin);
+        assertNotEquals(plainETag, encryptedETag);
+
+        // A cached decrypted note must not be used for the encrypted response, or the other way around
+        mockMvc.perform(get("/api/notes/" + id).header(HttpHeaders.IF_NONE_MATCH, plainETag).with(user(admin)))
+            .andExpect(status().isOk());
+        mockMvc.perform(get("/api/notes/" + id).header(HttpHeaders.IF_NONE_MATCH, encryptedETag)
+                .cookie(encKeyCookie()).with(user(owner)))
+            .andExpect(status().isOk());
+        mockMvc.perform(get("/api/notes/" + id).header(HttpHeaders.IF_NONE_MATCH, encryptedETag).with(user(admin)))
+            .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void listingWithMatchingETagIsNotModified() throws Exception {
+        String etag = listingETag();
+
+        mockMvc.perform(get("/api/notes").header(HttpHeaders.IF_NONE_MATCH, etag).cookie(encKeyCookie()).with(user(owner)))
+            .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void listingGetsNewETagAfterWrite() throws Exception {
+        String etag = listingETag();
+
+        noteService.createNote(plainNote("new", "new", ENC_KEY));
+
+        String updated = mockMvc.perform(get("/api/notes").header(HttpHeaders.IF_NONE_MATCH, etag)
+                .cookie(encKeyCookie()).with(user(owner)))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.length()").value(NOTE_COUNT + 1))
+            .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotEquals(etag, updated);
+    }
+
+    @Test
+    void encryptedListingsHaveNoETag() throws Exception {
+        // Admin listings and listings without the key return encrypted headers
+        mockMvc.perform(get("/api/notes").with(user(admin)))
+            .andExpect(status().isOk())
+            .andExpect(header().doesNotExist(HttpHeaders.ETAG));
+        mockMvc.perform(get("/api/notes").with(user(owner)))
+            .andExpect(status().isOk())
+            .andExpect(header().doesNotExist(HttpHeaders.ETAG));
+    }
+
+    @Test
+    void listingWithWrongKeyHasNoETag() throws Exception {
+        mockMvc.perform(get("/api/notes").cookie(new Cookie("encKey", "wrong-key")).with(user(owner)))
+            .andExpect(status().isOk())
+            .andExpect(header().doesNotExist(HttpHeaders.ETAG));
+
+        // A cached listing from the right key is still valid
+        String etag = listingETag();
+        mockMvc.perform(get("/api/notes").header(HttpHeaders.IF_NONE_MATCH, etag).cookie(encKeyCookie()).with(user(owner)))
+            .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void writesWithoutEncryptionKeyAreUnauthorized() throws Exception {
+        mockMvc.perform(post("/api/notes").header("X-CSRF-TOKEN", "token").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"header\":\"header\",\"content\":\"content\"}").with(user(owner)))
+            .andExpect(status().isUnauthorized());
+        mockMvc.perform(post("/api/notes/batch").header("X-CSRF-TOKEN", "token").contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"header\":\"header\",\"content\":\"content\"}]").with(user(owner)))
+            .andExpect(status().isUnauthorized());
+        mockMvc.perform(get("/api/notes/search").param("q", "header").with(user(owner)))
+            .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void updateOverStorageLimitIsBadRequest() throws Exception {
+        sessionStore.put(owner.getId(), "token", System.currentTimeMillis() + 60000);
+        jdbcTemplate.update("UPDATE user_usage SET stored_bytes = ? WHERE owner = ?", maxBytes, owner.getId());
+
+        mockMvc.perform(put("/api/notes/" + noteIds.get(0)).header("X-CSRF-TOKEN", "token")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"header\":\"header\",\"content\":\"much longer content than before\"}")
+                .cookie(encKeyCookie()).with(user(owner)))
+            .andExpect(status().isBadRequest())
+            .andExpect(content().string("Note storage limit reached"));
+    }
+
+    private String noteETag(long id, UserDetailsImpl userDetails) throws Exception {
+        return mockMvc.perform(get("/api/notes/" + id).cookie(encKeyCookie()).with(user(userDetails)))
+            .andExpect(status().isOk())
+            .andExpect(header().exists(HttpHeaders.ETAG))
+            .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+    }
+
+    private String listingETag() throws Exception {
+        return mockMvc.perform(get("/api/notes").cookie(encKeyCookie()).with(user(owner)))
+            .andExpect(status().isOk())
+            .andExpect(header().exists(HttpHeaders.ETAG))
+            .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+    }
+
+    // Modification times have millisecond resolution
+    private static void waitForClockTick(long time) {
+        while (System.currentTimeMillis() <= time) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private static Cookie encKeyCookie() {
+        return new Cookie("encKey", ENC_KEY);
+    }
+
+    private static Note plainNote(String header, String content) {
+        Note note = new Note();
+        note.setHeader(header.getBytes(StandardCharsets.UTF_8));
+        note.setContent(content.getBytes(StandardCharsets.UTF_8));
+        return note;
+    }
+
+    private Note plainNote(String header, String content, String encKey) {
+        Note note = plainNote(header, content);
+        note.setOwner(owner.getId());
+        note.setEncryptionKey(encKey.getBytes(StandardCharsets.UTF_8));
+        return note;
+    }
+}
@@ -0,0 +1,116 @@
+package fi.tuni.sepro.noteonline.repository;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+
+import fi.tuni.sepro.noteonline.models.Note;
+
+@DataJpaTest(properties = {
+    "spring.sql.init.mode=never",
+    "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+        + "fi.tuni.sepro.noteonline.repository.NoteRepositoryTests$RecordingInspector"
+})
+class NoteRepositoryTests {
+
+    @Autowired
+    private NoteRepository noteRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @BeforeEach
+    void setUp() {
+        entityManager.persist(createNote(1, "first", 100));
+        entityManager.persist(createNote(1, "second", 200));
+        entityManager.persist(createNote(1, "third", 200));
+        entityManager.persist(createNote(2, "other", 300));
+        entityManager.flush();
+        entityManager.clear();
+        RecordingInspector.statements.clear();
+    }
+
+    @Test
+    void headersByOwnerDoNotSelectContent() {
+        List<NoteHeaderView> headers = noteRepository.findHeadersByOwnerModifiedBefore(
+            1L, Long.MAX_VALUE, Long.MAX_VALUE, PageRequest.ofSize(10));
+
+        assertEquals(3, headers.size());
+        assertArrayEquals("iv".getBytes(StandardCharsets.UTF_8), headers.get(0).getIv());
+        assertEquals(Note.FORMAT_V2, headers.get(0).getFormatVersion());
+        assertNoContentSelected();
+    }
+
+    @Test
+    void allHeadersDoNotSelectContent() {
+        List<NoteHeaderView> headers = noteRepository.findHeadersModifiedBefore(
+            Long.MAX_VALUE, Long.MAX_VALUE, PageRequest.ofSize(10));
+
+        assertEquals(4, headers.size());
+        assertNoContentSelected();
+    }
+
+    @Test
+    void keysetPagesCoverAllNotesOnce() {
+        List<NoteHeaderView> first = noteRepository.findHeadersByOwnerModifiedBefore(
+            1L, Long.MAX_VALUE, Long.MAX_VALUE, PageRequest.ofSize(2));
+        assertEquals(List.of("third", "second"), headers(first));
+
+        // Both notes on the first page have the same timestamp, the id decides
+        NoteHeaderView last = first.get(1);
+        List<NoteHeaderView> second = noteRepository.findHeadersByOwnerModifiedBefore(
+            1L, last.getModifiedAt(), last.getId(), PageRequest.ofSize(2));
+        assertEquals(List.of("first"), headers(second));
+        assertNoContentSelected();
+    }
+
+    private static List<String> headers(List<NoteHeaderView> notes) {
+        return notes.stream().map(note -> new String(note.getHeader(), StandardCharsets.UTF_8)).toList();
+    }
+
+    private void assertNoContentSelected() {
+        assertFalse(RecordingInspector.statements.isEmpty());
+        for (String sql : RecordingInspector.statements) {
+            assertFalse(sql.toLowerCase(Locale.ROOT).contains("content"), "Content selected: " + sql);
+        }
+    }
+
+    private static Note createNote(long owner, String header, long timestamp) {
+        Note note = new Note();
+        note.setOwner(owner);
+        note.setCreatedAt(timestamp);
+        note.setModifiedAt(timestamp);
+        note.setHeader(header.getBytes(StandardCharsets.UTF_8));
+        note.setContent("content".getBytes(StandardCharsets.UTF_8));
+        note.setEncryptionKey("key".getBytes(StandardCharsets.UTF_8));
+        note.setIv("iv".getBytes(StandardCharsets.UTF_8));
+        note.setFormatVersion(Note.FORMAT_V2);
+        return note;
+    }
+
+    /**
+     * Records all SQL statements executed by Hibernate
+     */
+    public static class RecordingInspector implements StatementInspector {
+        static final List<String> statements = new CopyOnWriteArrayList<>();
+
+        @Override
+        public String inspect(String sql) {
+            statements.add(sql);
+            return sql;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package fi.tuni.sepro.noteonline.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+
+import fi.tuni.sepro.noteonline.models.Note;
+import fi.tuni.sepro.noteonline.models.NoteTombstone;
+import fi.tuni.sepro.noteonline.services.NoteTombstoneService;
+
+// Tombstones are inserted with a native PostgreSQL insert, so H2 runs in PostgreSQL mode
+@DataJpaTest(properties = {
+    "spring.sql.init.mode=never",
+    "spring.datasource.url=jdbc:h2:mem:tombstones;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH",
+    "spring.datasource.username=sa",
+    "spring.datasource.password=",
+    "noteonline.app.tombstoneRetentionMs=60000",
+    "noteonline.app.tombstonePurgeIntervalMs=60000"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import(NoteTombstoneService.class)
+class NoteTombstoneRepositoryTests {
+
+    private static final long RETENTION_MS = 60000;
+
+    @Autowired
+    private NoteTombstoneService tombstoneService;
+
+    @Autowired
+    private NoteTombstoneRepository tombstoneRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Test
+    void recordDeletedKeepsFirstDeletion() {
+        long before = System.currentTimeMillis();
+        tombstoneService.recordDeleted(List.of(note(1, 1), note(2, 1)));
+        tombstoneService.recordDeleted(List.of(note(1, 1)));
+
+        assertEquals(2, tombstoneRepository.count());
+        assertEquals(List.of(1L, 2L), tombstoneService.getDeletedSince(1L, before).stream().sorted().toList());
+    }
+
+    @Test
+    void deletedSinceIncludesCursorTimeAndFiltersOwner() {
+        persistTombstone(1, 1, 100);
+        persistTombstone(2, 1, 200);
+        persistTombstone(3, 1, 300);
+        persistTombstone(4, 2, 300);
+
+        assertEquals(List.of(2L, 3L), tombstoneService.getDeletedSince(1L, 200).stream().sorted().toList());
+        assertEquals(List.of(2L, 3L, 4L), tombstoneService.getDeletedSince(null, 200).stream().sorted().toList());
+        assertEquals(List.of(), tombstoneService.getDeletedSince(2L, 301));
+    }
+
+    @Test
+    void purgeRemovesTombstonesOlderThanRetention() {
+        long now = System.currentTimeMillis();
+        persistTombstone(1, 1, now - RETENTION_MS - 1000);
+        persistTombstone(2, 1, now - RETENTION_MS + 10000);
+        persistTombstone(3, 1, now);
+
+        tombstoneService.purgeExpired();
+        entityManager.clear();
+
+        assertEquals(List.of(2L, 3L), tombstoneService.getDeletedSince(1L, 0).stream().sorted().toList());
+    }
+
+    @Test
+    void cursorsOlderThanRetentionAreExpired() {
+        long now = System.currentTimeMillis();
+
+        // Tombstones after the cursor may already be purged, so the client can't be told about them
+        assertTrue(tombstoneService.isExpired(now - RETENTION_MS - 1000));
+        assertFalse(tombstoneService.isExpired(now - RETENTION_MS + 10000));
+        assertFalse(tombstoneService.isExpired(now));
+    }
+
+    private void persistTombstone(long noteId, long owner, long deletedAt) {
+        entityManager.persistAndFlush(NoteTombstone.builder().noteId(noteId).owner(owner).deletedAt(deletedAt).build());
+    }
+
+    private static Note note(long id, long owner) {
+        Note note = new Note();
+        note.setId(id);
+        note.setOwner(owner);
+        return note;
+    }
+}
@@ -0,0 +1,191 @@
+package fi.tuni.sepro.noteonline.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.context.annotation.Import;
+
+import fi.tuni.sepro.noteonline.dto.StorageStatsDto;
+import fi.tuni.sepro.noteonline.dto.UserStorageDto;
+import fi.tuni.sepro.noteonline.models.Note;
+import fi.tuni.sepro.noteonline.models.UserUsage;
+import fi.tuni.sepro.noteonline.services.UsageLedgerService;
+
+// The usage row is seeded with a native PostgreSQL insert, so H2 runs in PostgreSQL mode
+@DataJpaTest(properties = {
+    "spring.sql.init.mode=never",
+    "spring.datasource.url=jdbc:h2:mem:usage;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH",
+    "spring.datasource.username=sa",
+    "spring.datasource.password=",
+    "noteonline.app.maxNotesPerUser=3",
+    "noteonline.app.maxNoteBytesPerUser=1000"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import(UsageLedgerService.class)
+class UserUsageRepositoryTests {
+
+    private static final long OWNER = 1;
+
+    @Autowired
+    private UsageLedgerService usageLedger;
+
+    @SpyBean
+    private UserUsageRepository usageRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Test
+    void reserveAddsNotesAndBytes() {
+        assertTrue(usageLedger.reserve(OWNER, 1, 100));
+        assertTrue(usageLedger.reserve(OWNER, 1, 200));
+
+        UserUsage usage = usage();
+        assertEquals(2, usage.getNoteCount());
+        assertEquals(300, usage.getStoredBytes());
+        assertTrue(usage.getLastActivityAt() > 0);
+    }
+
+    @Test
+    void reserveFailsOverEitherLimit() {
+        assertTrue(usageLedger.reserve(OWNER, 3, 900));
+        long version = usage().getListVersion();
+
+        // Note count limit
+        assertFalse(usageLedger.reserve(OWNER, 1, 0));
+        // Byte limit, without adding notes
+        assertFalse(usageLedger.reserve(OWNER, 0, 101));
+        assertTrue(usageLedger.reserve(OWNER, 0, 100));
+
+        UserUsage usage = usage();
+        assertEquals(3, usage.getNoteCount());
+        assertEquals(1000, usage.getStoredBytes());
+        assertEquals(version + 1, usage.getListVersion());
+    }
+
+    @Test
+    void exceedsNoteLimitTellsWhichLimitFailed() {
+        assertTrue(usageLedger.reserve(OWNER, 2, 900));
+
+        assertFalse(usageLedger.reserve(OWNER, 1, 101));
+        assertFalse(usageLedger.exceedsNoteLimit(OWNER, 1));
+        assertFalse(usageLedger.reserve(OWNER, 2, 0));
+        assertTrue(usageLedger.exceedsNoteLimit(OWNER, 2));
+    }
+
+    @Test
+    void releaseRemovesNotesAndBytes() {
+        assertTrue(usageLedger.reserve(OWNER, 3, 1000));
+        usageLedger.release(OWNER, 1, 400);
+
+        UserUsage usage = usage();
+        assertEquals(2, usage.getNoteCount());
+        assertEquals(600, usage.getStoredBytes());
+        assertTrue(usageLedger.reserve(OWNER, 1, 400));
+    }
+
+    @Test
+    void firstReserveSeedsUsageFromStoredNotes() {
+        persistNote(OWNER, "header", "content");
+        persistNote(OWNER, "second", "more content");
+        persistNote(2, "other", "not counted");
+
+        assertTrue(usageLedger.reserve(OWNER, 1, 10));
+
+        UserUsage usage = usage();
+        assertEquals(3, usage.getNoteCount());
+        assertEquals("headercontent".length() + "secondmore content".length() + 10, usage.getStoredBytes());
+    }
+
+    @Test
+    void firstReserveFailsWhenStoredNotesAreOverLimit() {
+        persistNote(OWNER, "a", "a");
+        persistNote(OWNER, "b", "b");
+        persistNote(OWNER, "c", "c");
+
+        assertFalse(usageLedger.reserve(OWNER, 1, 0));
+        assertEquals(3, usage().getNoteCount());
+    }
+
+    @Test
+    void firstReleaseSeedsUsageFromStoredNotes() {
+        // Notes are already deleted when space is released, so the remaining notes are the usage
+        persistNote(OWNER, "kept", "note");
+
+        usageLedger.release(OWNER, 1, 100);
+
+        UserUsage usage = usage();
+        assertEquals(1, usage.getNoteCount());
+        assertEquals("keptnote".length(), usage.getStoredBytes());
+    }
+
+    @Test
+    void initializeDoesNothingWhenUsageExists() {
+        assertEquals(1, usageRepository.initialize(OWNER));
+        assertEquals(0, usageRepository.initialize(OWNER));
+    }
+
+    @Test
+    void reserveSucceedsWhenConcurrentRequestCreatesUsageFirst() {
+        // Another request inserts the row between the failed reserve and the insert of this one
+        doAnswer(invocation -> {
+            entityManager.persistAndFlush(UserUsage.builder().owner(OWNER).build());
+            return 0;
+        }).when(usageRepository).initialize(OWNER);
+
+        assertTrue(usageLedger.reserve(OWNER, 1, 100));
+
+        UserUsage usage = usage();
+        assertEquals(1, usage.getNoteCount());
+        assertEquals(100, usage.getStoredBytes());
+    }
+
+    @Test
+    void usersWithoutUsageRowAreIncludedInStorageStats() {
+        assertTrue(usageLedger.reserve(OWNER, 1, 100));
+        // Users who have not written since the ledger was added have notes but no usage row
+        persistNote(2, "header", "content");
+        persistNote(2, "second", "more content");
+        persistNote(3, "third", "user");
+
+        assertEquals(2, usageLedger.initializeMissingUsage());
+        assertEquals(0, usageLedger.initializeMissingUsage());
+
+        StorageStatsDto stats = usageLedger.getStorageStats(2);
+        assertEquals(3, stats.getUsers());
+        assertEquals(4, stats.getNoteCount());
+        long secondUserBytes = "headercontent".length() + "secondmore content".length();
+        assertEquals(100 + secondUserBytes + "thirduser".length(), stats.getStoredBytes());
+        assertEquals(List.of(OWNER, 2L), stats.getTopUsers().stream().map(UserStorageDto::getOwner).toList());
+        assertEquals(2, stats.getTopUsers().get(1).getNoteCount());
+        assertEquals(100, stats.getTopUsers().get(1).getLastActivityAt());
+    }
+
+    private UserUsage usage() {
+        entityManager.clear();
+        return entityManager.find(UserUsage.class, OWNER);
+    }
+
+    private void persistNote(long owner, String header, String content) {
+        Note note = new Note();
+        note.setOwner(owner);
+        note.setCreatedAt(100);
+        note.setModifiedAt(100);
+        note.setHeader(header.getBytes(StandardCharsets.UTF_8));
+        note.setContent(content.getBytes(StandardCharsets.UTF_8));
+        note.setEncryptionKey("key".getBytes(StandardCharsets.UTF_8));
+        note.setFormatVersion(Note.FORMAT_V3);
+        entityManager.persistAndFlush(note);
+    }
+}
@@ -0,0 +1,65 @@
+package fi.tuni.sepro.noteonline.services;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class CryptoEngineTests {
+
+    @ParameterizedTest
+    @ValueSource(strings = {"SunJCE", "BC"})
+    void encryptedContentDecryptsWithBothApis(String provider) throws Exception {
+        CryptoEngine cryptoEngine = new CryptoEngine(provider, 2);
+        SecretKey key = cryptoEngine.generateKey(128);
+        IvParameterSpec iv = cryptoEngine.generateIv();
+        byte[] content = "Note content to encrypt".getBytes(StandardCharsets.UTF_8);
+
+        byte[] encrypted = cryptoEngine.encrypt(content, key, iv);
+        assertEquals(cryptoEngine.encryptedSize(content.length), encrypted.length);
+
+        ByteBuffer decrypted = ByteBuffer.allocate(encrypted.length);
+        int length = cryptoEngine.decrypt(ByteBuffer.wrap(encrypted), decrypted, key, iv);
+        assertArrayEquals(content, Arrays.copyOf(decrypted.array(), length));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"SunJCE", "BC"})
+    void wrappedKeyUnwrapsOnlyWithSameKey(String provider) throws Exception {
+        CryptoEngine cryptoEngine = new CryptoEngine(provider, 2);
+        SecretKey fileKey = cryptoEngine.generateKey(128);
+        SecretKey dataKey = cryptoEngine.generateKey(256);
+
+        byte[] wrapped = cryptoEngine.wrapKey(fileKey, dataKey);
+        assertArrayEquals(fileKey.getEncoded(), cryptoEngine.unwrapKey(wrapped, dataKey).getEncoded());
+        assertThrows(Exception.class, () -> cryptoEngine.unwrapKey(wrapped, cryptoEngine.generateKey(256)));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"SunJCE", "BC"})
+    void sealedContentFailsWhenModified(String provider) throws Exception {
+        CryptoEngine cryptoEngine = new CryptoEngine(provider, 2);
+        SecretKey key = cryptoEngine.generateKey(256);
+        byte[] nonce = cryptoEngine.generateNonce();
+        byte[] aad = {1, 2, 3};
+        byte[] content = "Note content to seal".getBytes(StandardCharsets.UTF_8);
+
+        byte[] sealed = cryptoEngine.seal(content, key, nonce, aad);
+        assertEquals(content.length + CryptoEngine.AEAD_TAG_SIZE, sealed.length);
+        assertArrayEquals(content, cryptoEngine.open(sealed, key, nonce, aad));
+
+        assertThrows(AEADBadTagException.class, () -> cryptoEngine.open(sealed, key, nonce, new byte[] {1, 2, 4}));
+        sealed[0] ^= 1;
+        assertThrows(AEADBadTagException.class, () -> cryptoEngine.open(sealed, key, nonce, aad));
+    }
+}
@@ -0,0 +1,96 @@
+package fi.tuni.sepro.noteonline.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import fi.tuni.sepro.noteonline.models.User;
+import fi.tuni.sepro.noteonline.repository.UserRepository;
+import fi.tuni.sepro.noteonline.services.LoginAttemptStore.LoginAttempts;
+
+class InMemoryLoginAttemptStoreTests {
+
+    private static final String EMAIL = "user@example.com";
+    private static final String SQL = "UPDATE users SET failed_login_count = ?, locked_until = ? WHERE email = ?";
+
+    private UserRepository userRepository;
+    private JdbcTemplate jdbcTemplate;
+    private PrincipalCache principalCache;
+    private InMemoryLoginAttemptStore store;
+    private final List<List<Object[]>> written = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        userRepository = mock(UserRepository.class);
+        jdbcTemplate = mock(JdbcTemplate.class);
+        principalCache = mock(PrincipalCache.class);
+        store = new InMemoryLoginAttemptStore(userRepository, jdbcTemplate, principalCache);
+        ReflectionTestUtils.setField(store, "batchSize", 10);
+
+        User user = User.builder().email(EMAIL).password("password").salt("salt").build();
+        when(userRepository.findUserByEmail(EMAIL)).thenReturn(user);
+    }
+
+    @Test
+    void changedValuesAreWritten() {
+        recordWrites();
+        store.update(EMAIL, current -> new LoginAttempts(current.getFailedCount() + 1, 0));
+
+        store.flush();
+        store.flush();
+
+        assertEquals(1, written.size());
+        assertEquals(1, written.get(0).get(0)[0]);
+    }
+
+    @Test
+    void failedWriteIsRetriedOnNextFlush() {
+        doThrow(new DataAccessResourceFailureException("Database is unavailable"))
+            .when(jdbcTemplate).batchUpdate(anyString(), anyList());
+        store.update(EMAIL, current -> new LoginAttempts(current.getFailedCount() + 1, 0));
+
+        assertThrows(DataAccessResourceFailureException.class, () -> store.flush());
+
+        // Written by the next flush even without new attempts, before unlocked values are evicted
+        recordWrites();
+        store.flush();
+
+        assertEquals(1, written.size());
+        assertEquals(1, written.get(0).get(0)[0]);
+        assertEquals(EMAIL, written.get(0).get(0)[2]);
+    }
+
+    @Test
+    void lockChangeInvalidatesCachedUser() {
+        store.update(EMAIL, current -> new LoginAttempts(current.getFailedCount() + 1, 0));
+        verify(principalCache, never()).invalidate(EMAIL);
+
+        store.update(EMAIL, current -> new LoginAttempts(current.getFailedCount() + 1, System.currentTimeMillis() + 60000));
+        verify(principalCache).invalidate(EMAIL);
+    }
+
+    private void recordWrites() {
+        doAnswer(invocation -> {
+            List<Object[]> batch = invocation.getArgument(1);
+            assertEquals(SQL, invocation.getArgument(0));
+            written.add(new ArrayList<>(batch));
+            return new int[batch.size()];
+        }).when(jdbcTemplate).batchUpdate(anyString(), anyList());
+    }
+}
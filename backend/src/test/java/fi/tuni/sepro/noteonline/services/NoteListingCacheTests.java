@@ -0,0 +1,139 @@
+package fi.tuni.sepro.noteonline.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fi.tuni.sepro.noteonline.dto.NoteDetailsPageDto;
+import fi.tuni.sepro.noteonline.dto.NoteDetailsResponseDto;
+import fi.tuni.sepro.noteonline.utils.NoteCursor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class NoteListingCacheTests {
+
+    private static final String ENC_KEY = "encryption-key";
+    private static final String OTHER_ENC_KEY = "other-encryption-key";
+    private static final NoteCursor FIRST = NoteCursor.first(NoteCursor.Sort.MODIFIED);
+    private static final NoteCursor SECOND = NoteCursor.after(NoteCursor.Sort.MODIFIED, 100, 1);
+    private static final int PAGE_SIZE = 5;
+
+    private SimpleMeterRegistry meterRegistry;
+    private NoteListingCache cache;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        cache = cache(10, 60000);
+    }
+
+    @Test
+    void pageIsReturnedForSameSessionAndVersion() {
+        cache.put(1, ENC_KEY, FIRST, PAGE_SIZE, 1, page("cursor"));
+
+        NoteDetailsPageDto cached = cache.get(1, ENC_KEY, FIRST, PAGE_SIZE, 1);
+        assertNotNull(cached);
+        assertEquals("cursor", cached.getNextCursor());
+        assertNull(cache.get(1, ENC_KEY, SECOND, PAGE_SIZE, 1));
+        assertNull(cache.get(1, ENC_KEY, FIRST, PAGE_SIZE + 1, 1));
+        assertNull(cache.get(1, OTHER_ENC_KEY, FIRST, PAGE_SIZE, 1));
+    }
+
+    @Test
+    void pageOfOtherVersionIsEvicted() {
+        cache.put(1, ENC_KEY, FIRST, PAGE_SIZE, 1, page(null));
+
+        assertNull(cache.get(1, ENC_KEY, FIRST, PAGE_SIZE, 2));
+        // The stale page is removed, not only skipped
+        assertNull(cache.get(1, ENC_KEY, FIRST, PAGE_SIZE, 1));
+        assertEquals(0, size());
+        assertEquals(1, evictions());
+    }
+
+    @Test
+    void olderPageDoesNotReplaceNewerPage() {
+        cache.put(1, ENC_KEY, FIRST, PAGE_SIZE, 2, page("newer"));
+        cache.put(1, ENC_KEY, FIRST, PAGE_SIZE, 1, page("older"));
+
+        assertEquals("newer", cache.get(1, ENC_KEY, FIRST, PAGE_SIZE, 2).getNextCursor());
+        assertEquals(1, size());
+    }
+
+    @Test
+    void invalidateRemovesPagesOfOwner() {
+        cache.put(1, ENC_KEY, FIRST, PAGE_SIZE, 1, page(null));
+        cache.put(1, ENC_KEY, SECOND, PAGE_SIZE, 1, page(null));
+        cache.put(1, OTHER_ENC_KEY, FIRST, PAGE_SIZE, 1, page(null));
+        cache.put(2, ENC_KEY, FIRST, PAGE_SIZE, 1, page(null));
+
+        cache.invalidate(1);
+
+        assertNull(cache.get(1, ENC_KEY, FIRST, PAGE_SIZE, 1));
+        assertNull(cache.get(1, ENC_KEY, SECOND, PAGE_SIZE, 1));
+        assertNull(cache.get(1, OTHER_ENC_KEY, FIRST, PAGE_SIZE, 1));
+        assertNotNull(cache.get(2, ENC_KEY, FIRST, PAGE_SIZE, 1));
+        assertEquals(1, size());
+        assertEquals(3, evictions());
+    }
+
+    @Test
+    void evictSessionRemovesPagesOfSession() {
+        cache.put(1, ENC_KEY, FIRST, PAGE_SIZE, 1, page(null));
+        cache.put(1, OTHER_ENC_KEY, FIRST, PAGE_SIZE, 1, page(null));
+
+        cache.evictSession(ENC_KEY);
+
+        assertNull(cache.get(1, ENC_KEY, FIRST, PAGE_SIZE, 1));
+        assertNotNull(cache.get(1, OTHER_ENC_KEY, FIRST, PAGE_SIZE, 1));
+        assertEquals(1, size());
+    }
+
+    @Test
+    void leastRecentlyUsedOwnerIsRemovedWhenFull() throws Exception {
+        cache = cache(2, 60000);
+        cache.put(1, ENC_KEY, FIRST, PAGE_SIZE, 1, page(null));
+        cache.put(2, ENC_KEY, FIRST, PAGE_SIZE, 1, page(null));
+        cache.get(1, ENC_KEY, FIRST, PAGE_SIZE, 1);
+
+        cache.put(3, ENC_KEY, FIRST, PAGE_SIZE, 1, page(null));
+
+        assertEquals(2, size());
+        assertNull(cache.get(2, ENC_KEY, FIRST, PAGE_SIZE, 1));
+        assertNotNull(cache.get(1, ENC_KEY, FIRST, PAGE_SIZE, 1));
+        assertNotNull(cache.get(3, ENC_KEY, FIRST, PAGE_SIZE, 1));
+    }
+
+    @Test
+    void expiredPagesArePurged() throws Exception {
+        cache = cache(10, -1);
+        cache.put(1, ENC_KEY, FIRST, PAGE_SIZE, 1, page(null));
+        cache.put(2, ENC_KEY, FIRST, PAGE_SIZE, 1, page(null));
+
+        cache.purgeExpired();
+
+        assertEquals(0, size());
+        assertNull(cache.get(1, ENC_KEY, FIRST, PAGE_SIZE, 1));
+    }
+
+    private NoteListingCache cache(int maxEntries, long ttlMs) throws Exception {
+        meterRegistry = new SimpleMeterRegistry();
+        return new NoteListingCache(maxEntries, ttlMs, new CryptoEngine("SunJCE", 2), new ObjectMapper(), meterRegistry);
+    }
+
+    private double size() {
+        return meterRegistry.get("noteonline.listing.cache.size").gauge().value();
+    }
+
+    private double evictions() {
+        return meterRegistry.get("noteonline.listing.cache.evictions").counter().count();
+    }
+
+    private static NoteDetailsPageDto page(String nextCursor) {
+        return new NoteDetailsPageDto(List.of(new NoteDetailsResponseDto()), nextCursor);
+    }
+}
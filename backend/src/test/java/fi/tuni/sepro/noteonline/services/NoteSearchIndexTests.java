@@ -0,0 +1,208 @@
+package fi.tuni.sepro.noteonline.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import fi.tuni.sepro.noteonline.models.Note;
+import fi.tuni.sepro.noteonline.repository.NoteRepository;
+
+@SpringBootTest(properties = "noteonline.app.searchMaxTokensPerNote=10")
+@ActiveProfiles("test")
+@Transactional
+class NoteSearchIndexTests {
+
+    private static final long OWNER = 1;
+
+    @Autowired
+    private NoteSearchIndex searchIndex;
+
+    @Autowired
+    private NoteRepository noteRepository;
+
+    @Autowired
+    private CryptoEngine cryptoEngine;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private SecretKey dataKey;
+
+    @BeforeEach
+    void setUp() {
+        dataKey = cryptoEngine.generateKey(256);
+    }
+
+    @Test
+    void wordsAndPrefixesAreFound() throws Exception {
+        long id = saveNote(OWNER);
+        searchIndex.replace(OWNER, dataKey, Map.of(id, "Hello, World! ﬁle ok x"));
+
+        assertEquals(List.of(id), search("hello"));
+        // Case and compatibility forms are normalized
+        assertEquals(List.of(id), search("WORLD"));
+        assertEquals(List.of(id), search("file"));
+        // Prefixes of three or more characters, and whole two character words
+        assertEquals(List.of(id), search("hel"));
+        assertEquals(List.of(id), search("wor"));
+        assertEquals(List.of(id), search("ok"));
+        assertEquals(List.of(), search("he"));
+        assertEquals(List.of(), search("hellos"));
+        // Single characters are not searchable
+        assertEquals(List.of(), search("x"));
+        assertEquals(List.of(), search("!"));
+    }
+
+    @Test
+    void allWordsOfQueryMustMatch() throws Exception {
+        long first = saveNote(OWNER);
+        long second = saveNote(OWNER);
+        searchIndex.replace(OWNER, dataKey, Map.of(first, "apple banana", second, "apple cherry"));
+
+        assertEquals(List.of(first, second), search("apple").stream().sorted().toList());
+        assertEquals(List.of(first), search("apple banana"));
+        assertEquals(List.of(first), search("ban app"));
+        // Repeated words must not count as separate matches
+        assertEquals(List.of(), search("banana banana cherry"));
+        assertEquals(List.of(), search("apple durian"));
+    }
+
+    @Test
+    void notesOfOtherOwnersAreNotFound() throws Exception {
+        long id = saveNote(OWNER);
+        long other = saveNote(OWNER + 1);
+        searchIndex.replace(OWNER, dataKey, Map.of(id, "shared"));
+        searchIndex.replace(OWNER + 1, dataKey, Map.of(other, "shared"));
+
+        assertEquals(List.of(id), search("shared"));
+    }
+
+    @Test
+    void replaceRemovesOldWords() throws Exception {
+        long id = saveNote(OWNER);
+        searchIndex.replace(OWNER, dataKey, Map.of(id, "before"));
+        searchIndex.replace(OWNER, dataKey, Map.of(id, "after"));
+
+        assertEquals(List.of(), search("before"));
+        assertEquals(List.of(id), search("after"));
+    }
+
+    @Test
+    void notesWithoutWordsAreIndexed() throws Exception {
+        long empty = saveNote(OWNER);
+        long unindexed = saveNote(OWNER);
+        saveNote(OWNER + 1);
+
+        assertEquals(List.of(empty, unindexed), searchIndex.findUnindexed(OWNER).stream().sorted().toList());
+
+        // The marker token keeps notes without searchable words from being indexed again
+        searchIndex.replace(OWNER, dataKey, Map.of(empty, "x !"));
+        assertEquals(List.of(unindexed), searchIndex.findUnindexed(OWNER));
+        assertEquals(1, tokenCount(empty));
+
+        searchIndex.remove(List.of(empty));
+        assertEquals(List.of(empty, unindexed), searchIndex.findUnindexed(OWNER).stream().sorted().toList());
+    }
+
+    @Test
+    void termsOverLimitAreNotIndexed() throws Exception {
+        long id = saveNote(OWNER);
+        // The marker and six prefixes of the first word, three of the second, none of the last
+        searchIndex.replace(OWNER, dataKey, Map.of(id, "alphabet zebra alphabet yellow"));
+
+        assertEquals(10, tokenCount(id));
+        assertEquals(List.of(id), search("alphabet zebra"));
+        assertEquals(List.of(), search("yel"));
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    void concurrentIndexingOfSameNoteSucceeds() throws Exception {
+        // Tokens don't reference notes, so no note is needed and nothing else is committed
+        long id = Long.MAX_VALUE;
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        CountDownLatch inserted = new CountDownLatch(1);
+        CountDownLatch commit = new CountDownLatch(1);
+
+        try {
+            // Both searches found the note unindexed, the second inserts before the first commits
+            CompletableFuture<Void> first = CompletableFuture.runAsync(() -> transaction.executeWithoutResult(status -> {
+                replace(id, "concurrent");
+                inserted.countDown();
+                await(commit);
+            }));
+            await(inserted);
+            CompletableFuture<Void> second = CompletableFuture.runAsync(() ->
+                transaction.executeWithoutResult(status -> replace(id, "concurrent")));
+            Thread.sleep(200);
+            commit.countDown();
+
+            first.get(10, TimeUnit.SECONDS);
+            second.get(10, TimeUnit.SECONDS);
+            assertEquals(List.of(id), search("concurrent"));
+        }
+        finally {
+            transaction.executeWithoutResult(status -> searchIndex.remove(List.of(id)));
+        }
+    }
+
+    private void replace(long id, String text) {
+        try {
+            searchIndex.replace(OWNER, dataKey, Map.of(id, text));
+        }
+        catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private List<Long> search(String query) throws Exception {
+        return searchIndex.search(OWNER, dataKey, query);
+    }
+
+    private int tokenCount(long id) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM note_search_tokens WHERE note_id = ?",
+            Integer.class, id);
+    }
+
+    private long saveNote(long owner) {
+        Note note = new Note();
+        note.setOwner(owner);
+        note.setCreatedAt(100);
+        note.setModifiedAt(100);
+        note.setHeader("header".getBytes(StandardCharsets.UTF_8));
+        note.setContent("content".getBytes(StandardCharsets.UTF_8));
+        note.setEncryptionKey("key".getBytes(StandardCharsets.UTF_8));
+        note.setFormatVersion(Note.FORMAT_V3);
+        return noteRepository.saveAndFlush(note).getId();
+    }
+}
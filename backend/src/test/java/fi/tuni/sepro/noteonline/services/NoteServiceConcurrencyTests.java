@@ -0,0 +1,119 @@
+package fi.tuni.sepro.noteonline.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mockingDetails;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.stubbing.Answer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import fi.tuni.sepro.noteonline.dto.NoteBatchResultDto;
+import fi.tuni.sepro.noteonline.models.Note;
+import fi.tuni.sepro.noteonline.models.User;
+import fi.tuni.sepro.noteonline.models.UserUsage;
+import fi.tuni.sepro.noteonline.repository.NoteRepository;
+import fi.tuni.sepro.noteonline.repository.UserRepository;
+import fi.tuni.sepro.noteonline.repository.UserUsageRepository;
+
+// Not transactional, each request commits like it does in production
+@SpringBootTest
+@ActiveProfiles("test")
+class NoteServiceConcurrencyTests {
+
+    private static final String ENC_KEY = "encryption-key";
+
+    @Autowired
+    private NoteService noteService;
+
+    @SpyBean
+    private NoteRepository noteRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserUsageRepository usageRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private long owner;
+
+    @BeforeEach
+    void setUp() {
+        owner = userRepository.save(User.builder().email("concurrent@example.com").password("password").salt("salt").build()).getId();
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM note_search_tokens WHERE owner = ?", owner);
+        jdbcTemplate.update("DELETE FROM note_tombstones WHERE owner = ?", owner);
+        jdbcTemplate.update("DELETE FROM notes WHERE owner = ?", owner);
+        jdbcTemplate.update("DELETE FROM user_usage WHERE owner = ?", owner);
+        userRepository.deleteById(owner);
+    }
+
+    @Test
+    void notesDeletedByConcurrentBatchAreReleasedOnce() {
+        List<Long> ids = inTransaction(() -> noteService.createNotes(owner,
+            List.of(plainNote("first", "one"), plainNote("second", "two"), plainNote("kept", "three")), ENC_KEY))
+            .stream().map(NoteBatchResultDto::getId).toList();
+        List<Long> deletedIds = ids.subList(0, 2);
+
+        // The other request deletes and commits after this one has loaded the notes
+        TransactionTemplate otherRequest = new TransactionTemplate(transactionManager);
+        otherRequest.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        // Repository spies delegate to the repository proxy, there is no real method to call
+        Answer<?> repository = mockingDetails(noteRepository).getMockCreationSettings().getDefaultAnswer();
+        doAnswer(invocation -> {
+            Object notes = repository.answer(invocation);
+            otherRequest.execute(status -> noteService.deleteNotes(owner, false, deletedIds));
+            return notes;
+        }).doAnswer(repository).when(noteRepository).findAllById(any());
+
+        List<NoteBatchResultDto> results = inTransaction(() -> noteService.deleteNotes(owner, false, deletedIds));
+
+        assertEquals(List.of(404, 404), results.stream().map(NoteBatchResultDto::getStatus).toList());
+        UserUsage usage = usageRepository.findById(owner).orElseThrow();
+        assertEquals(1, usage.getNoteCount());
+        assertEquals(UsageLedgerService.storedBytes(noteRepository.findById(ids.get(2)).orElseThrow()),
+            usage.getStoredBytes());
+    }
+
+    private <T> T inTransaction(Callable<T> action) {
+        return new TransactionTemplate(transactionManager).execute(status -> {
+            try {
+                return action.call();
+            }
+            catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    private Note plainNote(String header, String content) {
+        Note note = new Note();
+        note.setOwner(owner);
+        note.setHeader(header.getBytes(StandardCharsets.UTF_8));
+        note.setContent(content.getBytes(StandardCharsets.UTF_8));
+        return note;
+    }
+}
@@ -0,0 +1,420 @@
+package fi.tuni.sepro.noteonline.services;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+
+import fi.tuni.sepro.noteonline.dto.NoteBatchResultDto;
+import fi.tuni.sepro.noteonline.dto.NoteChangesDto;
+import fi.tuni.sepro.noteonline.dto.NoteDetailsResponseDto;
+import fi.tuni.sepro.noteonline.exception.ChangeCursorExpiredException;
+import fi.tuni.sepro.noteonline.exception.NoteCountLimitException;
+import fi.tuni.sepro.noteonline.exception.NoteDecryptionException;
+import fi.tuni.sepro.noteonline.exception.NoteEncryptionException;
+import fi.tuni.sepro.noteonline.exception.NoteStorageLimitException;
+import fi.tuni.sepro.noteonline.models.Note;
+import fi.tuni.sepro.noteonline.models.User;
+import fi.tuni.sepro.noteonline.models.UserUsage;
+import fi.tuni.sepro.noteonline.repository.NoteRepository;
+import fi.tuni.sepro.noteonline.repository.UserRepository;
+import fi.tuni.sepro.noteonline.repository.UserUsageRepository;
+import fi.tuni.sepro.noteonline.utils.NoteChangeCursor;
+import fi.tuni.sepro.noteonline.utils.NoteCursor;
+import jakarta.persistence.EntityManager;
+
+@SpringBootTest
+@ActiveProfiles("test")
+@Transactional
+class NoteServiceTests {
+
+    private static final String ENC_KEY = "encryption-key";
+
+    @Autowired
+    private NoteService noteService;
+
+    @Autowired
+    private NoteRepository noteRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserUsageRepository usageRepository;
+
+    @Autowired
+    private DataKeyService dataKeyService;
+
+    @Autowired
+    private CryptoEngine cryptoEngine;
+
+    @Autowired
+    private NoteTombstoneService tombstoneService;
+
+    @Autowired
+    private NoteListingCache listingCache;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Value("${noteonline.app.maxNotesPerUser}")
+    private long maxNotes;
+
+    @Value("${noteonline.app.maxNoteBytesPerUser}")
+    private long maxBytes;
+
+    @Value("${noteonline.app.tombstoneRetentionMs}")
+    private long tombstoneRetentionMs;
+
+    private long owner;
+
+    @BeforeEach
+    void setUp() {
+        owner = userRepository.save(User.builder().email("user@example.com").password("password").salt("salt").build()).getId();
+    }
+
+    @Test
+    void firstUpdateOfUserWithoutUsageIsCountedOnce() throws Exception {
+        long id = noteService.createNote(plainNote("header", "content")).getId();
+
+        // Users with notes from before the ledger have no usage row
+        usageRepository.deleteAll();
+        entityManager.flush();
+        entityManager.clear();
+
+        noteService.updateNote(id, plainNote("header", "much longer content than before"));
+        entityManager.flush();
+        entityManager.clear();
+
+        Note stored = noteRepository.findById(id).orElseThrow();
+        assertEquals(UsageLedgerService.storedBytes(stored), usageRepository.findById(owner).orElseThrow().getStoredBytes());
+        assertEquals(1, usageRepository.findById(owner).orElseThrow().getNoteCount());
+    }
+
+    @Test
+    void createdNoteIsStoredInFormatV3AndDecrypted() throws Exception {
+        long id = noteService.createNote(plainNote("header", "content")).getId();
+        entityManager.flush();
+        entityManager.clear();
+
+        Note stored = noteRepository.findById(id).orElseThrow();
+        assertEquals(Note.FORMAT_V3, stored.getFormatVersion());
+        assertNull(stored.getIv());
+        assertNull(stored.getSalt());
+
+        Note decrypted = noteService.getNoteByIdDecrypted(id, ENC_KEY);
+        assertEquals("header", new String(decrypted.getHeader(), StandardCharsets.UTF_8));
+        assertEquals("content", new String(decrypted.getContent(), StandardCharsets.UTF_8));
+        assertEquals(List.of("header"), listedHeaders());
+    }
+
+    @Test
+    void batchCreatedNotesAreDecrypted() throws Exception {
+        List<Long> ids = noteService.createNotes(owner, List.of(plainNote("first", "one"), plainNote("second", "two")), 
+            ENC_KEY).stream().map(result -> result.getId()).toList();
+        entityManager.flush();
+        entityManager.clear();
+
+        assertEquals("one", new String(noteService.getNoteByIdDecrypted(ids.get(0), ENC_KEY).getContent(), StandardCharsets.UTF_8));
+        assertEquals("two", new String(noteService.getNoteByIdDecrypted(ids.get(1), ENC_KEY).getContent(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void updatedNoteIsDecrypted() throws Exception {
+        long id = noteService.createNote(plainNote("header", "content")).getId();
+        noteService.updateNote(id, plainNote("new header", "new content"));
+        entityManager.flush();
+        entityManager.clear();
+
+        Note decrypted = noteService.getNoteByIdDecrypted(id, ENC_KEY);
+        assertEquals("new header", new String(decrypted.getHeader(), StandardCharsets.UTF_8));
+        assertEquals("new content", new String(decrypted.getContent(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void legacyV1NoteIsDecrypted() throws Exception {
+        // V1 file keys are encrypted with a key derived from the encryption key and a per note salt
+        SecretKey fileKey = cryptoEngine.generateKey(256);
+        IvParameterSpec iv = cryptoEngine.generateIv();
+        byte[] salt = cryptoEngine.randomBytes(16);
+        SecretKey keyEncryptionKey = cryptoEngine.generateKeyFromPassword(ENC_KEY, salt);
+        long id = persistLegacyNote(Note.FORMAT_V1, fileKey, iv, salt, 
+            cryptoEngine.encrypt(fileKey.getEncoded(), keyEncryptionKey, iv));
+
+        assertLegacyNoteDecrypted(id);
+    }
+
+    @Test
+    void legacyV2NoteIsDecrypted() throws Exception {
+        SecretKey fileKey = cryptoEngine.generateKey(256);
+        IvParameterSpec iv = cryptoEngine.generateIv();
+        SecretKey dataKey = dataKeyService.getOrCreateDataKey(owner, ENC_KEY);
+        long id = persistLegacyNote(Note.FORMAT_V2, fileKey, iv, null, cryptoEngine.wrapKey(fileKey, dataKey));
+
+        assertLegacyNoteDecrypted(id);
+    }
+
+    @Test
+    void tamperedContentIsNotDecrypted() throws Exception {
+        long id = noteService.createNote(plainNote("header", "content")).getId();
+        entityManager.flush();
+        entityManager.clear();
+
+        Note stored = noteRepository.findById(id).orElseThrow();
+        byte[] content = stored.getContent().clone();
+        content[content.length - 1] ^= 1;
+        stored.setContent(content);
+        entityManager.flush();
+        entityManager.clear();
+
+        assertThrows(NoteDecryptionException.class, () -> noteService.getNoteByIdDecrypted(id, ENC_KEY));
+    }
+
+    @Test
+    void tamperedHeaderIsNotDecrypted() throws Exception {
+        long id = noteService.createNote(plainNote("header", "content")).getId();
+        entityManager.flush();
+        entityManager.clear();
+
+        Note stored = noteRepository.findById(id).orElseThrow();
+        byte[] header = stored.getHeader().clone();
+        header[header.length - 1] ^= 1;
+        stored.setHeader(header);
+        entityManager.flush();
+        entityManager.clear();
+
+        assertThrows(NoteDecryptionException.class, () -> noteService.getNoteByIdDecrypted(id, ENC_KEY));
+        // Listings show headers that can't be decrypted as stored
+        assertEquals(List.of(new String(header, StandardCharsets.UTF_8)), listedHeaders());
+    }
+
+    @Test
+    void noteSwappedWithAnotherNoteOfTheOwnerIsNotDecrypted() throws Exception {
+        long first = noteService.createNote(plainNote("first", "first content")).getId();
+        long second = noteService.createNote(plainNote("second", "second content")).getId();
+        entityManager.flush();
+        entityManager.clear();
+
+        // Everything the second note is encrypted with is copied over the first one
+        Note target = noteRepository.findById(first).orElseThrow();
+        Note source = noteRepository.findById(second).orElseThrow();
+        target.setHeader(source.getHeader());
+        target.setContent(source.getContent());
+        target.setEncryptionKey(source.getEncryptionKey());
+        entityManager.flush();
+        entityManager.clear();
+
+        assertThrows(NoteDecryptionException.class, () -> noteService.getNoteByIdDecrypted(first, ENC_KEY));
+        assertEquals("second content", new String(noteService.getNoteByIdDecrypted(second, ENC_KEY).getContent(), 
+            StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void createOverNoteLimitFailsWithNoteLimit() throws Exception {
+        noteService.createNote(plainNote("header", "content"));
+        setUsage(maxNotes, 0);
+
+        assertThrows(NoteCountLimitException.class, () -> noteService.createNote(plainNote("header", "content")));
+        assertEquals("Maximum number of notes added", 
+            noteService.createNotes(owner, List.of(plainNote("header", "content")), ENC_KEY).get(0).getError());
+    }
+
+    @Test
+    void createOverByteLimitFailsWithStorageLimit() throws Exception {
+        noteService.createNote(plainNote("header", "content"));
+        setUsage(1, maxBytes);
+
+        assertThrows(NoteStorageLimitException.class, () -> noteService.createNote(plainNote("header", "content")));
+        List<NoteBatchResultDto> results = noteService.createNotes(owner, 
+            List.of(plainNote("header", "content"), plainNote("header", "content")), ENC_KEY);
+        assertEquals(List.of("Note storage limit reached", "Note storage limit reached"), 
+            results.stream().map(NoteBatchResultDto::getError).toList());
+    }
+
+    @Test
+    void growingUpdateOverByteLimitFailsWithStorageLimit() throws Exception {
+        long id = noteService.createNote(plainNote("header", "content")).getId();
+        setUsage(1, maxBytes);
+
+        assertThrows(NoteStorageLimitException.class,
+            () -> noteService.updateNote(id, plainNote("header", "much longer content than before")));
+        // Notes that don't grow can still be updated
+        noteService.updateNote(id, plainNote("header", "shorter"));
+    }
+
+    @Test
+    void changesListUpdatesOldestFirstAndDeletes() throws Exception {
+        List<Long> ids = noteService.createNotes(owner, 
+            List.of(plainNote("first", "1"), plainNote("second", "2"), plainNote("third", "3")), ENC_KEY)
+            .stream().map(NoteBatchResultDto::getId).toList();
+        long synced = System.currentTimeMillis() - 60000;
+        ids.forEach(id -> setModifiedAt(id, synced));
+        NoteChangeCursor cursor = NoteChangeCursor.after(synced, ids.get(2));
+
+        // Second note is updated before the first one, third one is deleted
+        noteService.updateNote(ids.get(1), plainNote("second updated", "2"));
+        noteService.updateNote(ids.get(0), plainNote("first updated", "1"));
+        noteService.deleteNote(ids.get(2));
+        setModifiedAt(ids.get(1), synced + 10);
+        setModifiedAt(ids.get(0), synced + 20);
+
+        NoteChangesDto changes = noteService.getNoteChangesByUser(owner, ENC_KEY, cursor, 0);
+        assertEquals(List.of("second updated", "first updated"), 
+            changes.getNotes().stream().map(NoteDetailsResponseDto::getHeader).toList());
+        assertEquals(List.of(ids.get(2)), changes.getDeleted());
+        assertFalse(changes.isHasMore());
+
+        // Deletes after the cursor are returned with every page, clients apply changes by id
+        NoteChangesDto firstPage = noteService.getNoteChangesByUser(owner, ENC_KEY, cursor, 1);
+        assertEquals(List.of(ids.get(1)), firstPage.getNotes().stream().map(NoteDetailsResponseDto::getId).toList());
+        assertEquals(List.of(ids.get(2)), firstPage.getDeleted());
+        assertTrue(firstPage.isHasMore());
+
+        NoteChangesDto secondPage = noteService.getNoteChangesByUser(owner, ENC_KEY, 
+            NoteChangeCursor.decode(firstPage.getCursor()), 1);
+        assertEquals(List.of(ids.get(0)), secondPage.getNotes().stream().map(NoteDetailsResponseDto::getId).toList());
+        assertEquals(List.of(ids.get(2)), secondPage.getDeleted());
+        assertFalse(secondPage.isHasMore());
+    }
+
+    @Test
+    void cursorOlderThanTombstoneRetentionRequiresResync() throws Exception {
+        NoteChangeCursor expired = NoteChangeCursor.after(System.currentTimeMillis() - tombstoneRetentionMs - 1000, 0);
+
+        assertThrows(ChangeCursorExpiredException.class, 
+            () -> noteService.getNoteChangesByUser(owner, ENC_KEY, expired, 0));
+        assertThrows(ChangeCursorExpiredException.class, () -> noteService.getAllNoteChanges(expired, 0));
+        // The first sync has nothing to miss
+        assertTrue(noteService.getNoteChangesByUser(owner, ENC_KEY, NoteChangeCursor.first(), 0).getNotes().isEmpty());
+    }
+
+    @Test
+    void cursorFromBeforePurgedTombstoneRequiresResync() throws Exception {
+        long id = noteService.createNote(plainNote("header", "content")).getId();
+        noteService.deleteNote(id);
+        long deletedAt = System.currentTimeMillis() - tombstoneRetentionMs - 1000;
+        jdbcTemplate.update("UPDATE note_tombstones SET deleted_at = ? WHERE note_id = ?", deletedAt, id);
+
+        tombstoneService.purgeExpired();
+        assertEquals(List.of(), tombstoneService.getDeletedSince(owner, 0));
+
+        // Without the tombstone the delete would be missed, so the client must reload all notes
+        assertThrows(ChangeCursorExpiredException.class, 
+            () -> noteService.getNoteChangesByUser(owner, ENC_KEY, NoteChangeCursor.after(deletedAt - 1, 0), 0));
+    }
+
+    @Test
+    void blankEncryptionKeyDoesNotCreateDataKey() {
+        Note note = plainNote("header", "content");
+        note.setEncryptionKey(new byte[0]);
+
+        assertThrows(NoteEncryptionException.class, () -> noteService.createNote(note));
+        assertThrows(NoteEncryptionException.class, () -> noteService.createNotes(owner, List.of(plainNote("a", "b")), " "));
+        assertThrows(NoteDecryptionException.class, () -> noteService.searchNotes(owner, "", "header", 0));
+        entityManager.flush();
+        entityManager.clear();
+        assertNull(userRepository.findById(owner).orElseThrow().getDataKey());
+    }
+
+    @Test
+    void writesRemoveCachedListings() throws Exception {
+        long id = noteService.createNote(plainNote("header", "content")).getId();
+        NoteCursor first = NoteCursor.first(NoteCursor.Sort.MODIFIED);
+
+        // Pages are removed on write, even when read with the version they were cached at
+        long version = cacheListing(first);
+        noteService.updateNote(id, plainNote("new header", "new content"));
+        assertNull(listingCache.get(owner, ENC_KEY, first, 5, version));
+
+        version = cacheListing(first);
+        noteService.createNotes(owner, List.of(plainNote("second", "content")), ENC_KEY);
+        assertNull(listingCache.get(owner, ENC_KEY, first, 5, version));
+
+        version = cacheListing(first);
+        noteService.deleteNote(id);
+        assertNull(listingCache.get(owner, ENC_KEY, first, 5, version));
+    }
+
+    private long cacheListing(NoteCursor cursor) {
+        long version = noteService.getListVersion(owner);
+        noteService.getNoteDetailsByUser(owner, ENC_KEY, cursor, 5, version);
+        assertNotNull(listingCache.get(owner, ENC_KEY, cursor, 5, version));
+        return version;
+    }
+
+    private void setModifiedAt(long id, long modifiedAt) {
+        entityManager.flush();
+        entityManager.clear();
+        noteRepository.findById(id).orElseThrow().setModifiedAt(modifiedAt);
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    private void setUsage(long noteCount, long storedBytes) {
+        entityManager.flush();
+        entityManager.clear();
+        UserUsage usage = usageRepository.findById(owner).orElseThrow();
+        usage.setNoteCount(noteCount);
+        usage.setStoredBytes(storedBytes);
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    private long persistLegacyNote(int formatVersion, SecretKey fileKey, IvParameterSpec iv, byte[] salt, 
+            byte[] encryptionKey) throws Exception {
+        Note note = new Note();
+        note.setOwner(owner);
+        note.setHeader(cryptoEngine.encrypt("legacy header".getBytes(StandardCharsets.UTF_8), fileKey, iv));
+        note.setContent(cryptoEngine.encrypt("legacy content".getBytes(StandardCharsets.UTF_8), fileKey, iv));
+        note.setEncryptionKey(encryptionKey);
+        note.setIv(iv.getIV());
+        note.setSalt(salt);
+        note.setFormatVersion(formatVersion);
+        long id = noteRepository.save(note).getId();
+        entityManager.flush();
+        entityManager.clear();
+        return id;
+    }
+
+    private void assertLegacyNoteDecrypted(long id) throws Exception {
+        Note decrypted = noteService.getNoteByIdDecrypted(id, ENC_KEY);
+        assertArrayEquals("legacy header".getBytes(StandardCharsets.UTF_8), decrypted.getHeader());
+        assertArrayEquals("legacy content".getBytes(StandardCharsets.UTF_8), decrypted.getContent());
+        assertEquals(List.of("legacy header"), listedHeaders());
+    }
+
+    private List<String> listedHeaders() {
+        return noteService.getNoteDetailsByUser(owner, ENC_KEY, NoteCursor.first(NoteCursor.Sort.MODIFIED), 
+            NoteService.UNPAGED).getNotes().stream().map(NoteDetailsResponseDto::getHeader).toList();
+    }
+
+    private Note plainNote(String header, String content) {
+        Note note = new Note();
+        note.setOwner(owner);
+        note.setHeader(header.getBytes(StandardCharsets.UTF_8));
+        note.setContent(content.getBytes(StandardCharsets.UTF_8));
+        note.setEncryptionKey(ENC_KEY.getBytes(StandardCharsets.UTF_8));
+        return note;
+    }
+}
@@ -0,0 +1,114 @@
+package fi.tuni.sepro.noteonline.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import fi.tuni.sepro.noteonline.services.CryptoEngine;
+
+class NoteBlobTests {
+
+    private static final byte[] NONCE = new byte[CryptoEngine.AEAD_NONCE_SIZE];
+
+    @Test
+    void layoutV1IsParsed() {
+        byte[] blob = fill(NoteBlob.allocate(nonce(), 100));
+
+        NoteBlob parsed = NoteBlob.parse(blob);
+        assertArrayEquals(nonce(), parsed.getNonce());
+        assertEquals(100, parsed.getContentLength());
+        assertEquals(100, parsed.getPlainContentLength());
+        assertFalse(parsed.isDeflated());
+        assertEquals(100 + CryptoEngine.AEAD_TAG_SIZE, parsed.ciphertext().remaining());
+    }
+
+    @Test
+    void layoutV2IsParsed() {
+        NoteBlob plain = NoteBlob.parse(fill(NoteBlob.allocate((byte)0, nonce(), 100, 100)));
+        assertFalse(plain.isDeflated());
+        assertEquals(100, plain.getPlainContentLength());
+
+        NoteBlob deflated = NoteBlob.parse(fill(NoteBlob.allocate(NoteBlob.FLAG_DEFLATED, nonce(), 100, 5000)));
+        assertTrue(deflated.isDeflated());
+        assertArrayEquals(nonce(), deflated.getNonce());
+        assertEquals(100, deflated.getContentLength());
+        assertEquals(5000, deflated.getPlainContentLength());
+        assertEquals(100 + CryptoEngine.AEAD_TAG_SIZE, deflated.ciphertext().remaining());
+    }
+
+    @Test
+    void additionalDataHasOwnerIdAndPrefix() {
+        byte[] blob = fill(NoteBlob.allocate(NoteBlob.FLAG_DEFLATED, nonce(), 100, 5000));
+        NoteBlob parsed = NoteBlob.parse(blob);
+        int prefixLength = 2 + CryptoEngine.AEAD_NONCE_SIZE + Integer.BYTES;
+
+        byte[] expected = ByteBuffer.allocate(2 * Long.BYTES + prefixLength)
+            .putLong(1).putLong(2).put(blob, 0, prefixLength).array();
+        assertArrayEquals(expected, parsed.additionalData(1, 2));
+        assertFalse(Arrays.equals(expected, parsed.additionalData(1, 3)));
+        assertFalse(Arrays.equals(expected, parsed.additionalData(2, 2)));
+    }
+
+    @Test
+    void unknownLayoutIsRejected() {
+        byte[] blob = fill(NoteBlob.allocate(nonce(), 100));
+        blob[0] = 3;
+
+        assertEquals("Unknown note layout: 3",
+            assertThrows(IllegalArgumentException.class, () -> NoteBlob.parse(blob)).getMessage());
+    }
+
+    @Test
+    void unknownFlagsAreRejected() {
+        byte[] blob = fill(NoteBlob.allocate((byte)0, nonce(), 100, 100));
+        blob[1] = 2;
+
+        assertEquals("Unknown note layout flags: 2",
+            assertThrows(IllegalArgumentException.class, () -> NoteBlob.parse(blob)).getMessage());
+    }
+
+    @Test
+    void truncatedBlobIsRejected() {
+        byte[] v1 = fill(NoteBlob.allocate(nonce(), 0));
+        byte[] v2 = fill(NoteBlob.allocate(NoteBlob.FLAG_DEFLATED, nonce(), 0, 0));
+
+        // Without the tag, and cut inside the layout fields
+        assertThrows(IllegalArgumentException.class, () -> NoteBlob.parse(Arrays.copyOf(v1, v1.length - 1)));
+        assertThrows(IllegalArgumentException.class, () -> NoteBlob.parse(Arrays.copyOf(v1, 5)));
+        assertThrows(IllegalArgumentException.class, () -> NoteBlob.parse(Arrays.copyOf(v2, 2 + NONCE.length + 2)));
+        assertThrows(IllegalArgumentException.class, () -> NoteBlob.parse(new byte[0]));
+    }
+
+    @Test
+    void contentLengthOverMaxInflationIsRejected() {
+        long maxLength = NoteCompression.maxInflatedLength(100);
+        byte[] blob = fill(NoteBlob.allocate(NoteBlob.FLAG_DEFLATED, nonce(), 100, (int)maxLength));
+        assertEquals(maxLength, NoteBlob.parse(blob).getPlainContentLength());
+
+        byte[] tooLong = fill(NoteBlob.allocate(NoteBlob.FLAG_DEFLATED, nonce(), 100, (int)maxLength + 1));
+        assertThrows(IllegalArgumentException.class, () -> NoteBlob.parse(tooLong));
+        byte[] negative = fill(NoteBlob.allocate(NoteBlob.FLAG_DEFLATED, nonce(), 100, -1));
+        assertThrows(IllegalArgumentException.class, () -> NoteBlob.parse(negative));
+    }
+
+    private static byte[] nonce() {
+        byte[] nonce = NONCE.clone();
+        Arrays.fill(nonce, (byte)7);
+        return nonce;
+    }
+
+    // Fills the ciphertext and tag, which are not parsed
+    private static byte[] fill(ByteBuffer blob) {
+        while (blob.hasRemaining()) {
+            blob.put((byte)0x55);
+        }
+        return blob.array();
+    }
+}
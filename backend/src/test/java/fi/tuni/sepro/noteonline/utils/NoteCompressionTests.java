@@ -0,0 +1,70 @@
+package fi.tuni.sepro.noteonline.utils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class NoteCompressionTests {
+
+    private static final byte[] TEXT = "Note content that repeats itself. ".repeat(100).getBytes(StandardCharsets.UTF_8);
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 6, 9})
+    void deflatedContentInflatesToOriginal(int level) {
+        byte[] deflated = NoteCompression.deflate(TEXT, level, 32);
+
+        assertNotNull(deflated);
+        assertTrue(deflated.length <= TEXT.length - 32);
+        assertArrayEquals(TEXT, NoteCompression.inflate(deflated, TEXT.length));
+    }
+
+    @Test
+    void deflateGivesUpWhenSavingIsTooSmall() {
+        byte[] random = new byte[4096];
+        new Random(1).nextBytes(random);
+
+        assertNull(NoteCompression.deflate(random, 6, 32));
+        assertNull(NoteCompression.deflate(new byte[0], 6, 0));
+        // Data shorter than the required saving is never compressed
+        assertNull(NoteCompression.deflate(new byte[32], 6, 32));
+        assertNull(NoteCompression.deflate(TEXT, 6, TEXT.length));
+    }
+
+    @Test
+    void inflateRejectsWrongLength() {
+        byte[] deflated = NoteCompression.deflate(TEXT, 6, 32);
+
+        assertThrows(IllegalArgumentException.class, () -> NoteCompression.inflate(deflated, TEXT.length - 1));
+        assertThrows(IllegalArgumentException.class, () -> NoteCompression.inflate(deflated, TEXT.length + 1));
+    }
+
+    @Test
+    void inflateRejectsCorruptedData() {
+        byte[] deflated = NoteCompression.deflate(TEXT, 6, 32);
+
+        assertThrows(IllegalArgumentException.class,
+            () -> NoteCompression.inflate(Arrays.copyOf(deflated, deflated.length / 2), TEXT.length));
+        assertThrows(IllegalArgumentException.class,
+            () -> NoteCompression.inflate(new byte[] {(byte)0xFF, (byte)0xFF, (byte)0xFF}, TEXT.length));
+    }
+
+    @Test
+    void maxInflatedLengthCoversBestCompression() {
+        // Zeros compress close to the deflate maximum ratio
+        byte[] zeros = new byte[1 << 20];
+        byte[] deflated = NoteCompression.deflate(zeros, 9, 0);
+
+        assertTrue(NoteCompression.maxInflatedLength(deflated.length) >= zeros.length);
+        assertArrayEquals(zeros, NoteCompression.inflate(deflated, zeros.length));
+    }
+}